@@ -1,15 +1,33 @@
 package mcjty.lib;
 
 import mcjty.lib.base.ModBase;
+import mcjty.lib.debugtools.McJtyLibCommand;
+import mcjty.lib.debugtools.TileEntityProfiler;
 import mcjty.lib.multipart.MultipartBlock;
 import mcjty.lib.multipart.MultipartHelper;
 import mcjty.lib.multipart.MultipartTE;
+import mcjty.lib.network.CommandGuard;
+import mcjty.lib.network.DataRequestCache;
 import mcjty.lib.network.IServerCommand;
+import mcjty.lib.network.ListStreams;
+import mcjty.lib.network.NetworkSession;
+import mcjty.lib.network.PacketEnergyTelemetry;
+import mcjty.lib.network.PacketRequestGuiResync;
 import mcjty.lib.network.PacketSendPreferencesToClient;
+import mcjty.lib.network.PacketSessionHandshake;
 import mcjty.lib.network.PacketSetGuiStyle;
+import mcjty.lib.network.PacketSyncFields;
 import mcjty.lib.preferences.PreferencesDispatcher;
 import mcjty.lib.preferences.PreferencesProperties;
 import mcjty.lib.setup.ModSetup;
+import mcjty.lib.thirteen.MessageBundler;
+import mcjty.lib.tileentity.DirtyTracker;
+import mcjty.lib.tileentity.EnergyTelemetry;
+import mcjty.lib.tileentity.GenericEnergyStorageTileEntity;
+import mcjty.lib.tileentity.GenericTileEntity;
+import mcjty.lib.tileentity.SaveSnapshots;
+import mcjty.lib.tileentity.SyncedFields;
+import mcjty.lib.tileentity.TickScheduler;
 import mcjty.lib.proxy.IProxy;
 import mcjty.lib.typed.TypedMap;
 import mcjty.lib.varia.Logging;
@@ -30,14 +48,20 @@ import net.minecraftforge.common.capabilities.CapabilityInject;
 import net.minecraftforge.common.capabilities.CapabilityManager;
 import net.minecraftforge.event.AttachCapabilitiesEvent;
 import net.minecraftforge.event.entity.player.PlayerInteractEvent;
+import net.minecraftforge.event.world.ChunkDataEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.Loader;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.SidedProxy;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerAboutToStartEvent;
+import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
 import net.minecraftforge.fml.common.event.FMLServerStoppedEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.common.network.FMLNetworkEvent;
 import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 import net.minecraftforge.fml.relauncher.Side;
 import org.apache.commons.lang3.tuple.Pair;
@@ -96,10 +120,17 @@ public class McJtyLib implements ModBase {
         AbstractWorldData.clearInstances();
     }
 
+    @Mod.EventHandler
+    public void serverStarting(FMLServerStartingEvent event) {
+        event.registerServerCommand(new McJtyLibCommand());
+    }
+
     @Mod.EventHandler
     public void serverStopped(FMLServerStoppedEvent event) {
         Logging.log("Cleaning up all world data: " + AbstractWorldData.getDataCount() + " data blobs");
         AbstractWorldData.clearInstances();
+        EnergyTelemetry.clear();
+        SaveSnapshots.clear();
     }
 
     @Override
@@ -120,6 +151,18 @@ public class McJtyLib implements ModBase {
         clientCommands.put(Pair.of(modid, id), command);
     }
 
+    // Commands of the generic tile entities (see CommandGuard)
+    private static void declareCommands() {
+        CommandGuard.declareCommandAnyParams(GenericTileEntity.class, GenericTileEntity.COMMAND_SYNC_BINDING);
+        CommandGuard.declareCommand(GenericTileEntity.class, GenericTileEntity.COMMAND_SYNC_ACTION, GenericTileEntity.PARAM_KEY);
+        CommandGuard.declareCommand(GenericEnergyStorageTileEntity.class, GenericEnergyStorageTileEntity.CMD_GETENERGY);
+        DataRequestCache.declareReadOnly(GenericEnergyStorageTileEntity.class, GenericEnergyStorageTileEntity.CMD_GETENERGY);
+    }
+
+    public static boolean hasServerCommand(String modid, String id) {
+        return serverCommands.containsKey(Pair.of(modid, id));
+    }
+
     public static boolean handleCommand(String modid, String id, EntityPlayer player, TypedMap arguments) {
         IServerCommand command = serverCommands.get(Pair.of(modid, id));
         if (command == null) {
@@ -141,9 +184,15 @@ public class McJtyLib implements ModBase {
             return;
         }
         registerCapabilities();
+        declareCommands();
         networkHandler = new SimpleNetworkWrapper(PROVIDES);
         networkHandler.registerMessage(PacketSendPreferencesToClient.Handler.class, PacketSendPreferencesToClient.class, 0, Side.CLIENT);
         networkHandler.registerMessage(PacketSetGuiStyle.Handler.class, PacketSetGuiStyle.class, 1, Side.SERVER);
+        networkHandler.registerMessage(PacketSessionHandshake.ClientHandler.class, PacketSessionHandshake.class, 2, Side.CLIENT);
+        networkHandler.registerMessage(PacketSessionHandshake.ServerHandler.class, PacketSessionHandshake.class, 2, Side.SERVER);
+        networkHandler.registerMessage(PacketSyncFields.Handler.class, PacketSyncFields.class, 3, Side.CLIENT);
+        networkHandler.registerMessage(PacketEnergyTelemetry.Handler.class, PacketEnergyTelemetry.class, 4, Side.CLIENT);
+        networkHandler.registerMessage(PacketRequestGuiResync.Handler.class, PacketRequestGuiResync.class, 5, Side.SERVER);
         MinecraftForge.EVENT_BUS.register(new EventHandler());
         init = true;
         tesla = Loader.isModLoaded("tesla");
@@ -173,6 +222,79 @@ public class McJtyLib implements ModBase {
             }
         }
 
+        @SubscribeEvent
+        public void onServerTick(TickEvent.ServerTickEvent event) {
+            if (event.phase == TickEvent.Phase.END) {
+                DirtyTracker.flush();
+                SyncedFields.flush();
+                SaveSnapshots.onServerTickEnd(FMLCommonHandler.instance().getMinecraftServerInstance());
+                DataRequestCache.tick();
+                EnergyTelemetry.tick();
+                MessageBundler.flushAllServer();
+            }
+        }
+
+        @SubscribeEvent
+        public void onWorldUnload(WorldEvent.Unload event) {
+            if (!event.getWorld().isRemote) {
+                DirtyTracker.onWorldUnload(event.getWorld());
+                TickScheduler.onWorldUnload(event.getWorld());
+            }
+        }
+
+        @SubscribeEvent
+        public void onChunkSave(ChunkDataEvent.Save event) {
+            if (!event.getWorld().isRemote) {
+                TileEntityProfiler.onChunkSave(event.getChunk());
+            }
+        }
+
+        @SubscribeEvent
+        public void onWorldTick(TickEvent.WorldTickEvent event) {
+            if (event.phase == TickEvent.Phase.END && !event.world.isRemote) {
+                TickScheduler.tick(event.world);
+            }
+        }
+
+        @SubscribeEvent
+        public void onClientTick(TickEvent.ClientTickEvent event) {
+            if (event.phase == TickEvent.Phase.END) {
+                MessageBundler.flushAllClient();
+            }
+        }
+
+        @SubscribeEvent
+        public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+            MessageBundler.onPlayerLoggedOut(event.player);
+            ListStreams.onPlayerLoggedOut(event.player);
+            DataRequestCache.onPlayerLoggedOut(event.player);
+        }
+
+        @SubscribeEvent
+        public void onServerConnection(FMLNetworkEvent.ServerConnectionFromClientEvent event) {
+            NetworkSession.install(event.getManager(), false);
+        }
+
+        @SubscribeEvent
+        public void onClientConnection(FMLNetworkEvent.ClientConnectedToServerEvent event) {
+            NetworkSession.install(event.getManager(), true);
+        }
+
+        @SubscribeEvent
+        public void onClientDisconnection(FMLNetworkEvent.ClientDisconnectionFromServerEvent event) {
+            NetworkSession.onClientDisconnect();
+            ListStreams.onClientDisconnect();
+            DataRequestCache.onClientDisconnect();
+            MessageBundler.onClientDisconnect();
+        }
+
+        @SubscribeEvent
+        public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
+            if (event.player instanceof EntityPlayerMP) {
+                networkHandler.sendTo(new PacketSessionHandshake(NetworkSession.CODEC_VERSION), (EntityPlayerMP) event.player);
+            }
+        }
+
         @SubscribeEvent
         public void onEntityConstructing(AttachCapabilitiesEvent<Entity> event){
             if (event.getObject() instanceof EntityPlayer) {
@@ -18,6 +18,18 @@ public class GeneralConfig {
 
     public static boolean manageOwnership = true;
     public static boolean tallChunkFriendly = false;
+    public static boolean networkStackCache = false;
+    public static int dataRequestCacheTicks = 2;
+    public static int dataSubscriptionTicks = 5;
+    public static int commandRate = 60;
+    public static int commandBurst = 120;
+    public static int commandTotalRate = 200;
+    public static int commandMaxDistance = 0;
+    public static boolean strictCommands = false;
+    public static boolean networkMetrics = false;
+    public static int scheduledTickBudget = 2000;
+    public static boolean tileEntityProfiler = false;
+    public static boolean asyncSave = true;
 
     public static void init(Configuration cfg) {
         Logging.doLogging = cfg.get(CATEGORY_GENERAL, "logging", Logging.doLogging,
@@ -27,6 +39,30 @@ public class GeneralConfig {
                 "If true then blocks using mcjtylib will have ownership tagged on them (useful for the rftools security manager)").getBoolean();
         tallChunkFriendly = cfg.get(CATEGORY_GENERAL, "tallChunkFriendly", tallChunkFriendly,
                 "If true then mods using McJtyLib might try to be as friendly as possible to mods that support very tall chunks (taller then 256). No guarantees however! Set to false for more optimal performance").getBoolean();
+        networkStackCache = cfg.get(CATEGORY_GENERAL, "networkStackCache", networkStackCache,
+                "If true then item stacks that are sent to a player are remembered for that connection and sent as a small reference the next time. Saves bandwidth for GUIs that show a lot of items at the cost of some memory").getBoolean();
+        dataRequestCacheTicks = cfg.get(CATEGORY_GENERAL, "dataRequestCacheTicks", dataRequestCacheTicks,
+                "The number of ticks that the result of a data request from a client is cached (only for commands that are declared read-only). Multiple players looking at the same machine will share the result. 0 to disable").getInt();
+        dataSubscriptionTicks = cfg.get(CATEGORY_GENERAL, "dataSubscriptionTicks", dataSubscriptionTicks,
+                "The number of ticks between checks for data that clients subscribed to (like the energy level shown in a GUI). Updates are only sent when the data changed").getInt();
+        commandRate = cfg.get(CATEGORY_GENERAL, "commandRate", commandRate,
+                "The maximum number of times per second that a player can send the same command to a machine (GUI buttons, data requests, ...). Extra commands are ignored. 0 to disable").getInt();
+        commandBurst = cfg.get(CATEGORY_GENERAL, "commandBurst", commandBurst,
+                "The number of commands a player can send in a short burst before 'commandRate' is enforced").getInt();
+        commandTotalRate = cfg.get(CATEGORY_GENERAL, "commandTotalRate", commandTotalRate,
+                "The maximum number of commands per second that a player can send to all machines together. Bursts of twice this are allowed. 0 to disable").getInt();
+        commandMaxDistance = cfg.get(CATEGORY_GENERAL, "commandMaxDistance", commandMaxDistance,
+                "If not 0 then commands from a player for a machine further away then this are ignored. Leave at 0 if you use remote GUI's (like a storage scanner remote)").getInt();
+        strictCommands = cfg.get(CATEGORY_GENERAL, "strictCommands", strictCommands,
+                "If true then commands that were not declared by the mod are ignored").getBoolean();
+        networkMetrics = cfg.get(CATEGORY_GENERAL, "networkMetrics", networkMetrics,
+                "If true then keep statistics about the network messages of mods using mcjtylib. Can also be enabled with '/mcjtylib netstats on'").getBoolean();
+        scheduledTickBudget = cfg.get(CATEGORY_GENERAL, "scheduledTickBudget", scheduledTickBudget,
+                "The time (in microseconds) per tick that low priority machines can use before the rest of their work is delayed to the next tick. 0 for no limit").getInt();
+        tileEntityProfiler = cfg.get(CATEGORY_GENERAL, "tileEntityProfiler", tileEntityProfiler,
+                "If true then keep statistics about the time machines of mods using mcjtylib spend in ticks, saves, client updates and commands. Can also be enabled with '/mcjtylib profile on'").getBoolean();
+        asyncSave = cfg.get(CATEGORY_GENERAL, "asyncSave", asyncSave,
+                "If true then machines that support it build their save data in the background during world saves").getBoolean();
         maxInfuse = cfg.get(CATEGORY_GENERAL, "maxInfuse", maxInfuse,
                 "The maximum amount of dimensional shards that can be infused in a single machine").getInt();
     }
@@ -0,0 +1,31 @@
+package mcjty.lib.bindings;
+
+import java.util.function.Consumer;
+
+/**
+ * An action of a tile entity class (see Bindings). Unlike IAction this is not bound to
+ * a single tile entity so it can be shared by all instances of the class.
+ */
+public class ActionHolder<T> {
+
+    private final String key;
+    private final Consumer<T> action;
+
+    public ActionHolder(String key, Consumer<T> action) {
+        this.key = key;
+        this.action = action;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Consumer<T> action() {
+        return action;
+    }
+
+    /// Bind this action to a tile entity
+    public IAction bind(T te) {
+        return new DefaultAction(key, () -> action.accept(te));
+    }
+}
@@ -0,0 +1,151 @@
+package mcjty.lib.bindings;
+
+import mcjty.lib.typed.Key;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The values and actions of a tile entity class. Register them once in a static
+ * initializer of the tile entity:
+ *
+ * <pre>
+ *     static {
+ *         Bindings.register(MyTileEntity.class)
+ *                 .value(VALUE_MODE, MyTileEntity::getMode, MyTileEntity::setMode)
+ *                 .field(VALUE_SPEED, "speed")
+ *                 .action(ACTION_START, MyTileEntity::start);
+ *     }
+ * </pre>
+ *
+ * Method references are compiled to direct calls so a binding update is a hash lookup
+ * followed by a direct call on the tile entity. Bindings of superclasses are inherited.
+ */
+public class Bindings<T> {
+
+    private static final Map<Class<?>, Bindings<?>> registered = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Bindings<?>> resolved = new ConcurrentHashMap<>();
+    private static final Bindings<?> EMPTY = new Bindings<>(Object.class);
+
+    private final Class<T> clazz;
+    private final Map<String, ValueHolder<T, ?>> values = new HashMap<>();
+    private final Map<String, ActionHolder<T>> actions = new HashMap<>();
+
+    private Bindings(Class<T> clazz) {
+        this.clazz = clazz;
+    }
+
+    /**
+     * Start the registration of bindings for this class
+     */
+    public static <T> Bindings<T> register(Class<T> clazz) {
+        Bindings<T> bindings = new Bindings<>(clazz);
+        registered.put(clazz, bindings);
+        resolved.clear();
+        return bindings;
+    }
+
+    /**
+     * Get all bindings for this class (including the ones of the superclasses)
+     */
+    public static <T> Bindings<T> get(Class<? extends T> clazz) {
+        Bindings<?> bindings = resolved.get(clazz);
+        if (bindings == null) {
+            // Not computeIfAbsent() because resolve() recursively calls get() for the superclass
+            bindings = resolve(clazz);
+            resolved.put(clazz, bindings);
+        }
+        return (Bindings<T>) bindings;
+    }
+
+    private static Bindings<?> resolve(Class<?> clazz) {
+        Bindings<?> own = registered.get(clazz);
+        Class<?> superClass = clazz.getSuperclass();
+        Bindings<?> parent = superClass == null ? EMPTY : get(superClass);
+        if (own == null) {
+            return parent;
+        }
+        if (parent.isEmpty()) {
+            return own;
+        }
+        Bindings<Object> merged = new Bindings<>((Class<Object>) clazz);
+        merged.values.putAll((Map) parent.values);
+        merged.values.putAll((Map) own.values);
+        merged.actions.putAll((Map) parent.actions);
+        merged.actions.putAll((Map) own.actions);
+        return merged;
+    }
+
+    public <V> Bindings<T> value(Key<V> key, Function<T, V> getter, BiConsumer<T, V> setter) {
+        values.put(key.getName(), new ValueHolder<>(key, getter, setter));
+        return this;
+    }
+
+    /**
+     * Bind a value directly to a field of the tile entity (can be private)
+     */
+    public <V> Bindings<T> field(Key<V> key, String fieldName) {
+        MethodHandle getter;
+        MethodHandle setter;
+        try {
+            Field field = clazz.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            getter = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+            setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Can't bind field '" + fieldName + "' of " + clazz.getName(), e);
+        }
+        return value(key, te -> {
+            try {
+                return (V) (Object) getter.invokeExact((Object) te);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }, (te, v) -> {
+            try {
+                setter.invokeExact((Object) te, (Object) v);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    public Bindings<T> action(String key, Consumer<T> action) {
+        actions.put(key, new ActionHolder<>(key, action));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty() && actions.isEmpty();
+    }
+
+    @Nullable
+    public ValueHolder<T, ?> getValue(String name) {
+        return values.get(name);
+    }
+
+    @Nullable
+    public ActionHolder<T> getAction(String name) {
+        return actions.get(name);
+    }
+
+    public Collection<ValueHolder<T, ?>> getValues() {
+        return Collections.unmodifiableCollection(values.values());
+    }
+
+    public Collection<ActionHolder<T>> getActions() {
+        return Collections.unmodifiableCollection(actions.values());
+    }
+}
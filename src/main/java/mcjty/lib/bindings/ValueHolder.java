@@ -0,0 +1,40 @@
+package mcjty.lib.bindings;
+
+import mcjty.lib.typed.Key;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A value of a tile entity class (see Bindings). Unlike IValue this is not bound to
+ * a single tile entity so it can be shared by all instances of the class.
+ */
+public class ValueHolder<T, V> {
+
+    private final Key<V> key;
+    private final Function<T, V> getter;
+    private final BiConsumer<T, V> setter;
+
+    public ValueHolder(Key<V> key, Function<T, V> getter, BiConsumer<T, V> setter) {
+        this.key = key;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    public Key<V> getKey() {
+        return key;
+    }
+
+    public Function<T, V> getter() {
+        return getter;
+    }
+
+    public BiConsumer<T, V> setter() {
+        return setter;
+    }
+
+    /// Bind this value to a tile entity
+    public IValue<V> bind(T te) {
+        return new DefaultValue<>(key, () -> getter.apply(te), v -> setter.accept(te, v));
+    }
+}
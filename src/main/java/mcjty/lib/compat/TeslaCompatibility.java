@@ -2,6 +2,10 @@ package mcjty.lib.compat;
 
 import javax.annotation.Nullable;
 
+import mcjty.lib.tileentity.CapabilityCache;
+import mcjty.lib.varia.EnergyTools;
+import net.darkhax.tesla.api.ITeslaConsumer;
+import net.darkhax.tesla.api.ITeslaHolder;
 import net.darkhax.tesla.capability.TeslaCapabilities;
 import net.minecraft.item.ItemStack;
 import net.minecraft.tileentity.TileEntity;
@@ -25,8 +29,44 @@ public class TeslaCompatibility {
         return te.getCapability(TeslaCapabilities.CAPABILITY_HOLDER, side).getCapacity();
     }
 
+    // Energy and capacity with one capability lookup. Returns false if this is not a Tesla holder
+    public static boolean fill(TileEntity te, @Nullable EnumFacing side, EnergyTools.MutableEnergyLevel result) {
+        ITeslaHolder holder = te.getCapability(TeslaCapabilities.CAPABILITY_HOLDER, side);
+        if (holder == null) {
+            return false;
+        }
+        result.set(holder.getStoredPower(), holder.getCapacity());
+        return true;
+    }
+
     public static long receiveEnergy(TileEntity te, @Nullable EnumFacing from, long maxReceive) {
-        return te.getCapability(TeslaCapabilities.CAPABILITY_CONSUMER, from).givePower(maxReceive, false);
+        return receiveEnergy(te, from, maxReceive, false);
+    }
+
+    public static long receiveEnergy(TileEntity te, @Nullable EnumFacing from, long maxReceive, boolean simulate) {
+        return te.getCapability(TeslaCapabilities.CAPABILITY_CONSUMER, from).givePower(maxReceive, simulate);
+    }
+
+    // The consumer capability as a plain object so that callers don't need the Tesla classes
+    @Nullable
+    public static Object getConsumer(TileEntity te, @Nullable EnumFacing side) {
+        return te.getCapability(TeslaCapabilities.CAPABILITY_CONSUMER, side);
+    }
+
+    public static long givePower(Object consumer, long maxReceive, boolean simulate) {
+        return ((ITeslaConsumer) consumer).givePower(maxReceive, simulate);
+    }
+
+    // The tile entity is passed as an Object so that no Tesla type is in the signature (or in a
+    // lambda) of the caller. Only call these if Tesla is present
+    public static void registerHolder(CapabilityCache capabilities, Object holder) {
+        ITeslaHolder teslaHolder = (ITeslaHolder) holder;
+        capabilities.register(TeslaCapabilities.CAPABILITY_HOLDER, facing -> teslaHolder);
+    }
+
+    public static void registerConsumer(CapabilityCache capabilities, Object consumer) {
+        ITeslaConsumer teslaConsumer = (ITeslaConsumer) consumer;
+        capabilities.register(TeslaCapabilities.CAPABILITY_CONSUMER, facing -> teslaConsumer);
     }
 
     public static boolean isEnergyItem(ItemStack stack) {
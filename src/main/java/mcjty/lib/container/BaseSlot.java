@@ -15,6 +15,7 @@ public class BaseSlot extends Slot {
         if (inventory instanceof GenericTileEntity) {
             GenericTileEntity genericTileEntity = (GenericTileEntity) inventory;
             genericTileEntity.onSlotChanged(getSlotIndex(), stack);
+            genericTileEntity.wakeScheduledTick();
         }
         super.putStack(stack);
     }
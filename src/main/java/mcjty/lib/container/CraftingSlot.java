@@ -19,6 +19,7 @@ public class CraftingSlot extends Slot {
         if (inventory instanceof GenericTileEntity) {
             GenericTileEntity genericTileEntity = (GenericTileEntity) inventory;
             genericTileEntity.onSlotChanged(getSlotIndex(), stack);
+            genericTileEntity.wakeScheduledTick();
         }
         super.putStack(stack);
     }
@@ -21,6 +21,12 @@ public class GenericContainer extends Container {
     protected Map<String,IInventory> inventories = new HashMap<>();
     private ContainerFactory factory;
     private GenericCrafter crafter = null;
+    // The GUI data that was last sent to every player
+    private final Map<EntityPlayerMP, Object[]> guiDataSnapshots = new HashMap<>();
+    // From the last notifyPlayerOfChanges() so that a resync can be sent immediately
+    private SimpleNetworkWrapper guiDataWrapper = null;
+    private World guiDataWorld = null;
+    private BlockPos guiDataPos = null;
 
     public GenericContainer(ContainerFactory factory) {
         this.factory = factory;
@@ -310,13 +316,44 @@ public class GenericContainer extends Container {
     }
 
     // Call this in your detectAndSendChanges() implementation when you find one
-    // of the fields you need in the GUI has changed
+    // of the fields you need in the GUI has changed. Only the fields that changed since
+    // the previous call are actually sent
     protected void notifyPlayerOfChanges(SimpleNetworkWrapper wrapper, World world, BlockPos pos) {
+        guiDataWrapper = wrapper;
+        guiDataWorld = world;
+        guiDataPos = pos;
+        Object[] data = null;
         for (IContainerListener listener : this.listeners) {
             if (listener instanceof EntityPlayerMP) {
                 EntityPlayerMP player = (EntityPlayerMP) listener;
-                wrapper.sendTo(new PacketSendGuiData(world, pos), player);
+                if (data == null) {
+                    data = PacketSendGuiData.getDataForGUI(world, pos);
+                }
+                PacketSendGuiData packet = new PacketSendGuiData(world, pos, data, guiDataSnapshots.get(player));
+                if (!packet.isEmpty()) {
+                    guiDataSnapshots.put(player, PacketSendGuiData.snapshot(data));
+                    wrapper.sendTo(packet, player);
+                }
             }
         }
     }
+
+    /**
+     * Send the complete GUI data to this player again. Called when the client
+     * received a delta that it could not apply (see PacketRequestGuiResync)
+     */
+    public void resyncGuiData(EntityPlayerMP player) {
+        guiDataSnapshots.remove(player);
+        if (guiDataWrapper != null && listeners.contains(player)) {
+            Object[] data = PacketSendGuiData.getDataForGUI(guiDataWorld, guiDataPos);
+            guiDataSnapshots.put(player, PacketSendGuiData.snapshot(data));
+            guiDataWrapper.sendTo(new PacketSendGuiData(guiDataWorld, guiDataPos, data, null), player);
+        }
+    }
+
+    @Override
+    public void onContainerClosed(EntityPlayer player) {
+        super.onContainerClosed(player);
+        guiDataSnapshots.remove(player);
+    }
 }
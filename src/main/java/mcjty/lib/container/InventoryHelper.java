@@ -6,6 +6,11 @@ import net.minecraft.inventory.IInventory;
 import net.minecraft.inventory.ISidedInventory;
 import net.minecraft.inventory.InventoryBasic;
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTPrimitive;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.EnumHand;
@@ -30,6 +35,8 @@ public class InventoryHelper {
     private final ContainerFactory containerFactory;
     private ItemStackList stacks;
     private int count;
+    // Saved items that are not decoded yet (see GenericTileEntity.isLazyLoading())
+    private NBTTagList unloaded = null;
 
     public InventoryHelper(TileEntity tileEntity, ContainerFactory containerFactory, int count) {
         this.tileEntity = tileEntity;
@@ -39,6 +46,7 @@ public class InventoryHelper {
     }
 
     public void setNewCount(int newcount) {
+        ensureLoaded();
         this.count = newcount;
         ItemStackList newstacks = ItemStackList.create(newcount);
         for (int i = 0 ; i < Math.min(stacks.size(), newstacks.size()) ; i++) {
@@ -48,6 +56,7 @@ public class InventoryHelper {
     }
 
     public ItemStack removeStackFromSlot(int index) {
+        ensureLoaded();
         ItemStack stack = stacks.get(index);
         setStackInSlot(index, ItemStack.EMPTY);
         return stack;
@@ -390,7 +399,58 @@ public class InventoryHelper {
         return count;
     }
 
+    /**
+     * Keep the saved items and only decode them when this inventory is first used
+     */
+    public void setUnloaded(NBTTagList list) {
+        unloaded = list;
+    }
+
+    /**
+     * The saved items if they were not decoded yet. Otherwise null
+     */
+    @Nullable
+    public NBTTagList getUnloaded() {
+        return unloaded;
+    }
+
+    private void ensureLoaded() {
+        if (unloaded != null) {
+            NBTTagList list = unloaded;
+            unloaded = null;
+            readStacks(list, stacks);
+        }
+    }
+
+    /**
+     * Decode a list of saved items. Entries without a 'Slot' are in the old
+     * format (one entry for every slot)
+     */
+    public static void readStacks(NBTTagList bufferTagList, ItemStackList list) {
+        for (int i = 0; i < list.size(); i++) {
+            list.set(i, ItemStack.EMPTY);
+        }
+        for (int i = 0; i < bufferTagList.tagCount(); i++) {
+            NBTTagCompound nbtTagCompound = bufferTagList.getCompoundTagAt(i);
+            if (nbtTagCompound.hasNoTags()) {
+                continue;
+            }
+            int slot = i;
+            NBTBase slotTag = nbtTagCompound.getTag("Slot");
+            if (slotTag instanceof NBTTagByte) {
+                slot = ((NBTTagByte) slotTag).getByte() & 255;
+            } else if (slotTag instanceof NBTPrimitive) {
+                slot = ((NBTPrimitive) slotTag).getInt();
+            }
+            // The slot can be anything in corrupt or hand edited NBT
+            if (slot >= 0 && slot < list.size()) {
+                list.set(slot, new ItemStack(nbtTagCompound));
+            }
+        }
+    }
+
     public ItemStack getStackInSlot(int index) {
+        ensureLoaded();
         if (index >= stacks.size()) {
             return ItemStack.EMPTY;
         }
@@ -399,6 +459,7 @@ public class InventoryHelper {
     }
 
     public ItemStackList getStacks() {
+        ensureLoaded();
         return stacks;
     }
 
@@ -408,6 +469,7 @@ public class InventoryHelper {
      * @param stack
      */
     public void setStackInSlot(int index, ItemStack stack) {
+        ensureLoaded();
         if (index >= stacks.size()) {
             return;
         }
@@ -415,6 +477,7 @@ public class InventoryHelper {
     }
 
     public boolean containsItem(int index) {
+        ensureLoaded();
         if (index >= stacks.size()) {
             return false;
         }
@@ -422,6 +485,7 @@ public class InventoryHelper {
     }
 
     public ItemStack decrStackSize(int index, int amount) {
+        ensureLoaded();
         if (index >= stacks.size()) {
             return ItemStack.EMPTY;
         }
@@ -454,6 +518,7 @@ public class InventoryHelper {
     }
 
     public void setInventorySlotContents(int stackLimit, int index, ItemStack stack) {
+        ensureLoaded();
         if (index >= stacks.size()) {
             return;
         }
@@ -488,7 +553,7 @@ public class InventoryHelper {
     }
 
     public static void compactStacks(InventoryHelper helper, int start, int max) {
-        compactStacks(helper.stacks, start, max);
+        compactStacks(helper.getStacks(), start, max);
     }
 
     public static void compactStacks(List<ItemStack> stacks, int start, int max) {
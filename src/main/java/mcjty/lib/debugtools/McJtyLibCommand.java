@@ -0,0 +1,157 @@
+package mcjty.lib.debugtools;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import mcjty.lib.network.NetworkMetrics;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Server command with debug tools for mods using McJtyLib:
+ *   /mcjtylib netstats [on|off|reset|dump]
+ *   /mcjtylib profile [on|off|positions|reset|dump]
+ */
+public class McJtyLibCommand extends CommandBase {
+
+    @Override
+    public String getName() {
+        return "mcjtylib";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/mcjtylib netstats [on|off|reset|dump] | profile [on|off|positions|reset|dump]";
+    }
+
+    @Override
+    public int getRequiredPermissionLevel() {
+        return 2;
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length < 1) {
+            throw new WrongUsageException(getUsage(sender));
+        }
+        if ("netstats".equals(args[0])) {
+            executeNetStats(server, sender, args.length > 1 ? args[1] : "");
+        } else if ("profile".equals(args[0])) {
+            executeProfile(server, sender, args.length > 1 ? args[1] : "");
+        } else {
+            throw new WrongUsageException(getUsage(sender));
+        }
+    }
+
+    private void executeNetStats(MinecraftServer server, ICommandSender sender, String sub) throws CommandException {
+        switch (sub) {
+            case "on":
+                NetworkMetrics.setEnabled(true);
+                message(sender, "Network statistics enabled");
+                break;
+            case "off":
+                NetworkMetrics.setEnabled(false);
+                message(sender, "Network statistics disabled");
+                break;
+            case "reset":
+                NetworkMetrics.reset();
+                message(sender, "Network statistics cleared");
+                break;
+            case "dump":
+                File file = server.getFile("mcjtylib_netstats.json");
+                dumpJson(file, NetworkMetrics.toJson());
+                message(sender, "Network statistics written to " + file.getPath());
+                break;
+            case "":
+                if (!NetworkMetrics.isEnabled()) {
+                    message(sender, "Network statistics are disabled. Use '/mcjtylib netstats on'");
+                }
+                for (String line : NetworkMetrics.getReport(10)) {
+                    message(sender, line);
+                }
+                break;
+            default:
+                throw new WrongUsageException(getUsage(sender));
+        }
+    }
+
+    private void executeProfile(MinecraftServer server, ICommandSender sender, String sub) throws CommandException {
+        switch (sub) {
+            case "on":
+                TileEntityProfiler.setEnabled(true);
+                message(sender, "Tile entity profiler enabled");
+                break;
+            case "off":
+                TileEntityProfiler.setEnabled(false);
+                TileEntityProfiler.setPerPosition(false);
+                message(sender, "Tile entity profiler disabled");
+                break;
+            case "positions":
+                TileEntityProfiler.setEnabled(true);
+                TileEntityProfiler.setPerPosition(true);
+                message(sender, "Tile entity profiler enabled (per class and per position)");
+                break;
+            case "reset":
+                TileEntityProfiler.reset();
+                message(sender, "Tile entity profiler cleared");
+                break;
+            case "dump":
+                File file = server.getFile("mcjtylib_profile.json");
+                dumpJson(file, TileEntityProfiler.toJson());
+                message(sender, "Tile entity profile written to " + file.getPath());
+                break;
+            case "":
+                if (!TileEntityProfiler.isEnabled()) {
+                    message(sender, "Tile entity profiler is disabled. Use '/mcjtylib profile on'");
+                }
+                for (String line : TileEntityProfiler.getReport(10, false)) {
+                    message(sender, line);
+                }
+                if (TileEntityProfiler.isPerPosition()) {
+                    for (String line : TileEntityProfiler.getReport(10, true)) {
+                        message(sender, line);
+                    }
+                }
+                break;
+            default:
+                throw new WrongUsageException(getUsage(sender));
+        }
+    }
+
+    static void dumpJson(File file, Object json) throws CommandException {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer writer = new FileWriter(file)) {
+            gson.toJson(json, writer);
+        } catch (IOException e) {
+            throw new CommandException("Error writing " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    static void message(ICommandSender sender, String message) {
+        sender.sendMessage(new TextComponentString(message));
+    }
+
+    @Override
+    public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos) {
+        if (args.length == 1) {
+            return getListOfStringsMatchingLastWord(args, "netstats", "profile");
+        } else if (args.length == 2 && "netstats".equals(args[0])) {
+            return getListOfStringsMatchingLastWord(args, "on", "off", "reset", "dump");
+        } else if (args.length == 2 && "profile".equals(args[0])) {
+            return getListOfStringsMatchingLastWord(args, "on", "off", "positions", "reset", "dump");
+        }
+        return Collections.emptyList();
+    }
+}
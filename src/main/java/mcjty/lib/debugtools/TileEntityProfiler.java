@@ -0,0 +1,238 @@
+package mcjty.lib.debugtools;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import mcjty.lib.base.GeneralConfig;
+import mcjty.lib.tileentity.GenericTileEntity;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.Chunk;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional counters per tile entity class (and optionally per position) for the time and size
+ * of the things a machine costs the server: ticks (scheduledTick() or a call to tick() from
+ * the update() of the machine), saves, update packets and commands from clients. Enable with
+ * the 'tileEntityProfiler' config or '/mcjtylib profile on'.
+ *
+ * The size and time of saves is sampled by writing the tile entities of a chunk again when
+ * the chunk is saved, so this doubles the save cost while enabled.
+ */
+public class TileEntityProfiler {
+
+    private static final Map<String, Counters> classes = new ConcurrentHashMap<>();
+    private static final Map<String, Counters> positions = new ConcurrentHashMap<>();
+
+    private static boolean perPosition = false;
+
+    public static class Counters {
+        private final LongAdder ticks = new LongAdder();
+        private final LongAdder tickNanos = new LongAdder();
+        private final LongAdder saves = new LongAdder();
+        private final LongAdder saveBytes = new LongAdder();
+        private final LongAdder saveNanos = new LongAdder();
+        private final LongAdder syncs = new LongAdder();
+        private final LongAdder syncBytes = new LongAdder();
+        private final LongAdder syncNanos = new LongAdder();
+        private final LongAdder commands = new LongAdder();
+        private final LongAdder commandNanos = new LongAdder();
+
+        public long getTotalNanos() {
+            return tickNanos.sum() + saveNanos.sum() + syncNanos.sum() + commandNanos.sum();
+        }
+
+        private void reset() {
+            ticks.reset();
+            tickNanos.reset();
+            saves.reset();
+            saveBytes.reset();
+            saveNanos.reset();
+            syncs.reset();
+            syncBytes.reset();
+            syncNanos.reset();
+            commands.reset();
+            commandNanos.reset();
+        }
+
+        private JsonObject toJson(String name) {
+            JsonObject object = new JsonObject();
+            object.add("name", new JsonPrimitive(name));
+            object.add("ticks", new JsonPrimitive(ticks.sum()));
+            object.add("tickNanos", new JsonPrimitive(tickNanos.sum()));
+            object.add("saves", new JsonPrimitive(saves.sum()));
+            object.add("saveBytes", new JsonPrimitive(saveBytes.sum()));
+            object.add("saveNanos", new JsonPrimitive(saveNanos.sum()));
+            object.add("syncs", new JsonPrimitive(syncs.sum()));
+            object.add("syncBytes", new JsonPrimitive(syncBytes.sum()));
+            object.add("syncNanos", new JsonPrimitive(syncNanos.sum()));
+            object.add("commands", new JsonPrimitive(commands.sum()));
+            object.add("commandNanos", new JsonPrimitive(commandNanos.sum()));
+            return object;
+        }
+
+        @Override
+        public String toString() {
+            return "ticks " + ticks.sum() + " (" + tickNanos.sum() / 1000 + "us), saves " + saves.sum() + " (" + saveBytes.sum()
+                    + " bytes, " + saveNanos.sum() / 1000 + "us), syncs " + syncs.sum() + " (" + syncBytes.sum() + " bytes, "
+                    + syncNanos.sum() / 1000 + "us), commands " + commands.sum() + " (" + commandNanos.sum() / 1000 + "us)";
+        }
+    }
+
+    public static boolean isEnabled() {
+        return GeneralConfig.tileEntityProfiler;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        GeneralConfig.tileEntityProfiler = enabled;
+    }
+
+    public static boolean isPerPosition() {
+        return perPosition;
+    }
+
+    public static void setPerPosition(boolean perPosition) {
+        TileEntityProfiler.perPosition = perPosition;
+    }
+
+    /**
+     * Start of something to measure. Returns 0 if the profiler is disabled
+     */
+    public static long start() {
+        return isEnabled() ? System.nanoTime() : 0;
+    }
+
+    private static void add(TileEntity te, long nanos, long size, Kind kind) {
+        kind.add(classes.computeIfAbsent(te.getClass().getName(), n -> new Counters()), nanos, size);
+        if (perPosition && te.getWorld() != null) {
+            BlockPos pos = te.getPos();
+            String name = te.getClass().getSimpleName() + "@" + te.getWorld().provider.getDimension()
+                    + ":" + pos.getX() + "," + pos.getY() + "," + pos.getZ();
+            kind.add(positions.computeIfAbsent(name, n -> new Counters()), nanos, size);
+        }
+    }
+
+    /**
+     * Machines that tick themselves (ITickable) can report their tick with this:
+     *     long start = TileEntityProfiler.start();
+     *     ...
+     *     TileEntityProfiler.tick(this, start);
+     */
+    public static void tick(TileEntity te, long start) {
+        if (start != 0) {
+            add(te, System.nanoTime() - start, 0, Kind.TICK);
+        }
+    }
+
+    public static void command(TileEntity te, long start) {
+        if (start != 0) {
+            add(te, System.nanoTime() - start, 0, Kind.COMMAND);
+        }
+    }
+
+    public static void sync(TileEntity te, long start, NBTTagCompound tag) {
+        if (start != 0) {
+            long nanos = System.nanoTime() - start;
+            add(te, nanos, sizeOf(tag), Kind.SYNC);
+        }
+    }
+
+    public static void onChunkSave(Chunk chunk) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (TileEntity te : chunk.getTileEntityMap().values()) {
+            if (te instanceof GenericTileEntity && !te.isInvalid()) {
+                long start = System.nanoTime();
+                NBTTagCompound tag = te.writeToNBT(new NBTTagCompound());
+                long nanos = System.nanoTime() - start;
+                add(te, nanos, sizeOf(tag), Kind.SAVE);
+            }
+        }
+    }
+
+    private static long sizeOf(NBTTagCompound tag) {
+        DataOutputStream out = new DataOutputStream(ByteStreams.nullOutputStream());
+        try {
+            CompressedStreamTools.write(tag, out);
+        } catch (IOException e) {
+            return 0;
+        }
+        return out.size();
+    }
+
+    private enum Kind {
+        TICK, SAVE, SYNC, COMMAND;
+
+        void add(Counters counters, long nanos, long size) {
+            switch (this) {
+                case TICK:
+                    counters.ticks.increment();
+                    counters.tickNanos.add(nanos);
+                    break;
+                case SAVE:
+                    counters.saves.increment();
+                    counters.saveNanos.add(nanos);
+                    counters.saveBytes.add(size);
+                    break;
+                case SYNC:
+                    counters.syncs.increment();
+                    counters.syncNanos.add(nanos);
+                    counters.syncBytes.add(size);
+                    break;
+                case COMMAND:
+                    counters.commands.increment();
+                    counters.commandNanos.add(nanos);
+                    break;
+            }
+        }
+    }
+
+    public static void reset() {
+        classes.clear();
+        positions.clear();
+    }
+
+    private static List<Pair<String, Counters>> sorted(Map<String, Counters> map) {
+        List<Pair<String, Counters>> all = new ArrayList<>();
+        map.forEach((name, counters) -> all.add(Pair.of(name, counters)));
+        all.sort(Comparator.comparingLong((Pair<String, Counters> p) -> p.getRight().getTotalNanos()).reversed());
+        return all;
+    }
+
+    /**
+     * A short report with the tile entity classes (or positions) that used the most time
+     */
+    public static List<String> getReport(int max, boolean byPosition) {
+        List<Pair<String, Counters>> all = sorted(byPosition ? positions : classes);
+        List<String> report = new ArrayList<>();
+        for (int i = 0 ; i < Math.min(max, all.size()) ; i++) {
+            report.add(all.get(i).getLeft() + ": " + all.get(i).getRight());
+        }
+        return report;
+    }
+
+    public static JsonObject toJson() {
+        JsonObject root = new JsonObject();
+        root.add("enabled", new JsonPrimitive(isEnabled()));
+        JsonArray array = new JsonArray();
+        sorted(classes).forEach(p -> array.add(p.getRight().toJson(p.getLeft())));
+        root.add("classes", array);
+        JsonArray array2 = new JsonArray();
+        sorted(positions).forEach(p -> array2.add(p.getRight().toJson(p.getLeft())));
+        root.add("positions", array2);
+        return root;
+    }
+}
@@ -0,0 +1,58 @@
+package mcjty.lib.gui;
+
+import mcjty.lib.tileentity.GenericTileEntity;
+import mcjty.lib.typed.Key;
+import mcjty.lib.typed.TypedMap;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Collects the changes of bound values in a window (dragging a slider, typing in a text field, ...)
+ * and sends only the latest value of every key in one COMMAND_SYNC_BINDING command after a short
+ * delay. The server applies all values of the command and marks the tile entity dirty once.
+ */
+public class BindingBatcher {
+
+    public static final long DELAY_MS = 100;
+
+    private final GenericGuiContainer<?> gui;
+    private final Map<SimpleNetworkWrapper, TypedMap.Builder> pending = new IdentityHashMap<>();
+    private long firstChange = 0;
+
+    public BindingBatcher(GenericGuiContainer<?> gui) {
+        this.gui = gui;
+    }
+
+    public <V> void valueChanged(SimpleNetworkWrapper network, Key<V> key, V value) {
+        if (pending.isEmpty()) {
+            firstChange = System.currentTimeMillis();
+        }
+        pending.computeIfAbsent(network, n -> TypedMap.builder()).put(key, value);
+    }
+
+    /**
+     * Send the pending changes if the first one was long enough ago. Called every frame
+     */
+    public void tick() {
+        if (!pending.isEmpty() && System.currentTimeMillis() - firstChange >= DELAY_MS) {
+            flush();
+        }
+    }
+
+    /**
+     * Send all pending changes now. Called before every command of the GUI and when the window closes
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // Clear first: sendServerCommand() flushes the bindings again before it sends
+        Map<SimpleNetworkWrapper, TypedMap.Builder> changes = new IdentityHashMap<>(pending);
+        pending.clear();
+        for (Map.Entry<SimpleNetworkWrapper, TypedMap.Builder> entry : changes.entrySet()) {
+            gui.sendServerCommand(entry.getKey(), GenericTileEntity.COMMAND_SYNC_BINDING, entry.getValue().build());
+        }
+    }
+}
@@ -6,6 +6,7 @@ import mcjty.lib.gui.widgets.BlockRender;
 import mcjty.lib.gui.widgets.Widget;
 import mcjty.lib.network.PacketSendServerCommand;
 import mcjty.lib.network.PacketServerCommandTyped;
+import mcjty.lib.tileentity.GenericEnergyStorageTileEntity;
 import mcjty.lib.tileentity.GenericTileEntity;
 import mcjty.lib.typed.TypedMap;
 import mcjty.lib.varia.Logging;
@@ -370,6 +371,12 @@ public abstract class GenericGuiContainer<T extends GenericTileEntity> extends G
 
     @Override
     public void onGuiClosed() {
+        // Don't lose the last changes of sliders and text fields
+        flushBindings();
+        if (tileEntity instanceof GenericEnergyStorageTileEntity) {
+            // The next time the GUI opens the energy is polled until the server pushes it again
+            ((GenericEnergyStorageTileEntity) tileEntity).resetClientTelemetry();
+        }
         super.onGuiClosed();
         Keyboard.enableRepeatEvents(false);
     }
@@ -417,19 +424,32 @@ public abstract class GenericGuiContainer<T extends GenericTileEntity> extends G
         }
     }
 
+    // Send the pending values of bound widgets first so that a command never overtakes them
+    private void flushBindings() {
+        if (windowManager != null) {
+            windowManager.flushBindings();
+        } else if (window != null) {
+            window.flushBindings();
+        }
+    }
+
     public void sendServerCommand(SimpleNetworkWrapper network, String command, TypedMap params) {
+        flushBindings();
         network.sendToServer(new PacketServerCommandTyped(tileEntity.getPos(), null, command, params));
     }
 
     public void sendServerCommand(SimpleNetworkWrapper network, int dimensionId, String command, TypedMap params) {
+        flushBindings();
         network.sendToServer(new PacketServerCommandTyped(tileEntity.getPos(), dimensionId, command, params));
     }
 
     public void sendServerCommand(String modid, String command, @Nonnull TypedMap arguments) {
+        flushBindings();
         network.sendToServer(new PacketSendServerCommand(modid, command, arguments));
     }
 
     public void sendServerCommand(String modid, String command) {
+        flushBindings();
         network.sendToServer(new PacketSendServerCommand(modid, command, TypedMap.EMPTY));
     }
 
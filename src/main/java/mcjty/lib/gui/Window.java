@@ -51,6 +51,7 @@ public class Window {
     private Set<Integer> activeFlags = new HashSet<>();
 
     private List<FocusEvent> focusEvents = null;
+    private BindingBatcher bindingBatcher = null;
 
 
     public Window(GuiScreen gui, AbstractContainerWidget<?> toplevel) {
@@ -267,6 +268,9 @@ public class Window {
     }
 
     public void draw() {
+        if (bindingBatcher != null) {
+            bindingBatcher.tick();
+        }
         int x = getRelativeX();
         int y = getRelativeY();
 
@@ -367,11 +371,10 @@ public class Window {
     }
 
     public <T extends GenericTileEntity> Window action(SimpleNetworkWrapper network, String componentName, T te, String keyName) {
-        for (IAction action : te.getActions()) {
-            if (keyName.equals(action.getKey())) {
-                initializeAction(network, componentName, action);
-                return this;
-            }
+        IAction action = te.findAction(keyName);
+        if (action != null) {
+            initializeAction(network, componentName, action);
+            return this;
         }
 
         Logging.message(Minecraft.getMinecraft().player, "Could not find action '" + keyName + "' in supplied TE!");
@@ -383,18 +386,27 @@ public class Window {
     }
 
     public <T extends GenericTileEntity> void sendAction(SimpleNetworkWrapper network, T te, String actionKey) {
-        for (IAction action : te.getActions()) {
-            if (actionKey.equals(action.getKey())) {
-                sendAction(network, action);
-                return;
-            }
+        IAction action = te.findAction(actionKey);
+        if (action != null) {
+            sendAction(network, action);
+            return;
         }
 
         Logging.message(Minecraft.getMinecraft().player, "Could not find action '" + actionKey + "' in supplied TE!");
 
     }
 
+    /**
+     * Send the pending changes of bound values to the server now
+     */
+    public void flushBindings() {
+        if (bindingBatcher != null) {
+            bindingBatcher.flush();
+        }
+    }
+
     private void sendAction(SimpleNetworkWrapper network, IAction action) {
+        // sendServerCommand() sends pending values first so the action can use them
         ((GenericGuiContainer<?>)gui).sendServerCommand(network, GenericTileEntity.COMMAND_SYNC_ACTION,
                 TypedMap.builder()
                         .put(GenericTileEntity.PARAM_KEY, action.getKey())
@@ -402,12 +414,10 @@ public class Window {
     }
 
     public <T extends GenericTileEntity> Window bind(SimpleNetworkWrapper network, String componentName, T te, String keyName) {
-        for (IValue<?> value : te.getValues()) {
-            Key<?> key = value.getKey();
-            if (keyName.equals(key.getName())) {
-                initializeBinding(network, componentName, value);
-                return this;
-            }
+        IValue<?> value = te.findValue(keyName);
+        if (value != null) {
+            initializeBinding(network, componentName, value);
+            return this;
         }
 
         Logging.message(Minecraft.getMinecraft().player, "Could not find value '" + keyName + "' in supplied TE!");
@@ -426,12 +436,11 @@ public class Window {
 
         event(componentName, (source, params) -> {
             Type<V> type = value.getKey().getType();
-            ((GenericGuiContainer<?>)gui).sendServerCommand(network, GenericTileEntity.COMMAND_SYNC_BINDING,
-                    TypedMap.builder()
-                            // @todo this conversion can fail!
-                            .put(value.getKey(), type.convert(component.getGenericValue(type)))
-                            .build());
-
+            if (bindingBatcher == null) {
+                bindingBatcher = new BindingBatcher((GenericGuiContainer<?>) gui);
+            }
+            // @todo this conversion can fail!
+            bindingBatcher.valueChanged(network, value.getKey(), type.convert(component.getGenericValue(type)));
         });
     }
 
@@ -71,6 +71,7 @@ public class WindowManager {
     }
 
     public void closeWindow(Window window) {
+        window.flushBindings();
         if (windows.contains(window)) {
             windows.remove(window);
         } else if (modalWindows.contains(window)) {
@@ -78,6 +79,11 @@ public class WindowManager {
         }
     }
 
+    public void flushBindings() {
+        windows.forEach(Window::flushBindings);
+        modalWindows.forEach(Window::flushBindings);
+    }
+
     public int getMouseWheel() {
         return mouseWheel;
     }
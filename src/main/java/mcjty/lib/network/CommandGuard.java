@@ -0,0 +1,201 @@
+package mcjty.lib.network;
+
+import mcjty.lib.McJtyLib;
+import mcjty.lib.base.GeneralConfig;
+import mcjty.lib.typed.Key;
+import mcjty.lib.typed.TypedMap;
+import mcjty.lib.varia.Logging;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.BlockPos;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks for command packets coming from a client. acceptTileCommand() and acceptServerCommand()
+ * are called on the netty thread (from the packet handlers) before anything is scheduled on the
+ * main thread. A packet is rejected if:
+ *   - the player sends commands faster then allowed. Every declared command has its own bucket
+ *     ('commandRate' per second with bursts up to 'commandBurst'). All other commands share a
+ *     single bucket and all commands together are limited by 'commandTotalRate'
+ *   - the command is not declared by any tile entity and 'strictCommands' is set
+ *   - the position is outside the world or (if 'commandMaxDistance' is set) too far away
+ *     from the player. Commands for another dimension are not checked for distance
+ * acceptParams() is called on the main thread once the tile entity is known. It rejects
+ * parameters that the class of the tile entity (or a superclass) did not declare for the command.
+ * Undeclared commands are only rejected there if 'strictCommands' is set.
+ */
+public class CommandGuard {
+
+    // Declared parameters per tile entity class and command
+    private static final Map<Class<?>, Map<String, Set<Key<?>>>> declaredCommands = new ConcurrentHashMap<>();
+    // Names of all declared commands. On the netty thread the tile entity is not known yet
+    private static final Set<String> declaredNames = ConcurrentHashMap.newKeySet();
+    // Marker for commands that accept any parameters
+    private static final Set<Key<?>> ANY_PARAMS = new HashSet<>();
+
+    private static final int MAX_COORDINATE = 30000000;
+
+    /**
+     * Declare a command of a tile entity class (and its subclasses) and the parameters it accepts
+     */
+    public static void declareCommand(Class<? extends ICommandHandler> clazz, String command, Key<?>... keys) {
+        declare(clazz, command, new HashSet<>(Arrays.asList(keys)));
+    }
+
+    /**
+     * Declare a command of a tile entity class (and its subclasses) that can have any parameters
+     */
+    public static void declareCommandAnyParams(Class<? extends ICommandHandler> clazz, String command) {
+        declare(clazz, command, ANY_PARAMS);
+    }
+
+    private static void declare(Class<?> clazz, String command, Set<Key<?>> keys) {
+        declaredCommands.computeIfAbsent(clazz, c -> new ConcurrentHashMap<>()).put(command, keys);
+        declaredNames.add(command);
+    }
+
+    /**
+     * True if some tile entity class declared this command
+     */
+    public static boolean isDeclared(String command) {
+        return command != null && declaredNames.contains(command);
+    }
+
+    @Nullable
+    private static Set<Key<?>> getDeclaration(Class<?> clazz, String command) {
+        while (clazz != null) {
+            Map<String, Set<Key<?>>> commands = declaredCommands.get(clazz);
+            if (commands != null) {
+                Set<Key<?>> keys = commands.get(command);
+                if (keys != null) {
+                    return keys;
+                }
+            }
+            clazz = clazz.getSuperclass();
+        }
+        return null;
+    }
+
+    /**
+     * Check a command for a tile entity on the netty thread. Returns false if the packet should be ignored
+     */
+    public static boolean acceptTileCommand(@Nullable EntityPlayerMP player, BlockPos pos, @Nullable Integer dimension, String command) {
+        if (player == null || command == null) {
+            return false;
+        }
+        boolean declared = declaredNames.contains(command);
+        if (!checkRate(player, declared ? command : null)) {
+            return false;
+        }
+        if (!declared && GeneralConfig.strictCommands) {
+            return reject(player, "unknown command '" + command + "'");
+        }
+        if (pos == null || Math.abs(pos.getX()) > MAX_COORDINATE || Math.abs(pos.getZ()) > MAX_COORDINATE) {
+            return reject(player, "invalid position for command '" + command + "'");
+        }
+        int maxDistance = GeneralConfig.commandMaxDistance;
+        if (maxDistance > 0 && dimension == null) {
+            // The position of the player can be slightly outdated here which is fine for this check
+            if (player.getDistanceSqToCenter(pos) > (double) maxDistance * maxDistance) {
+                return reject(player, "position too far away for command '" + command + "'");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check the parameters of a command against what the tile entity declared.
+     * Only call this on the main thread. Returns false if the command should be ignored
+     */
+    public static boolean acceptParams(EntityPlayerMP player, Object handler, String command, @Nullable TypedMap params) {
+        Set<Key<?>> keys = getDeclaration(handler.getClass(), command);
+        if (keys == null) {
+            if (GeneralConfig.strictCommands) {
+                return reject(player, "unknown command '" + command + "' for " + handler.getClass().getName());
+            }
+        } else if (keys != ANY_PARAMS && params != null) {
+            for (Key<?> key : params.getKeys()) {
+                if (!keys.contains(key)) {
+                    return reject(player, "unexpected parameter '" + key.getName() + "' for command '" + command + "'");
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check a command that was registered with McJtyLib.registerCommand().
+     * Returns false if the packet should be ignored
+     */
+    public static boolean acceptServerCommand(@Nullable EntityPlayerMP player, String modid, String command) {
+        if (player == null || command == null) {
+            return false;
+        }
+        boolean known = McJtyLib.hasServerCommand(modid, command);
+        if (!checkRate(player, known ? command : null)) {
+            return false;
+        }
+        if (!known) {
+            return reject(player, "unknown command '" + command + "' for mod '" + modid + "'");
+        }
+        return true;
+    }
+
+    /**
+     * Rate check for a request of McJtyLib itself (like PacketRequestGuiResync).
+     * Returns false if the packet should be ignored
+     */
+    public static boolean acceptLibraryCommand(@Nullable EntityPlayerMP player, String command) {
+        return player != null && checkRate(player, command);
+    }
+
+    // Only known commands get their own bucket. All other commands (null) share one so that
+    // a client can't create buckets (or get a new burst) by sending new names
+    private static boolean checkRate(EntityPlayerMP player, @Nullable String command) {
+        NetworkSession session = NetworkSession.get(player);
+        if (session == null) {
+            return true;
+        }
+        if (GeneralConfig.commandTotalRate > 0) {
+            TokenBucket total = session.getTotalCommandBucket();
+            if (!total.tryConsume()) {
+                if (total.startThrottling()) {
+                    Logging.log("Player " + player.getName() + " is sending too many commands. Ignoring");
+                }
+                return false;
+            }
+        }
+        if (GeneralConfig.commandRate <= 0) {
+            return true;
+        }
+        TokenBucket bucket = command == null ? session.getUnknownCommandBucket() : session.getCommandBucket(command);
+        if (bucket.tryConsume()) {
+            return true;
+        }
+        if (bucket.startThrottling()) {
+            Logging.log("Player " + player.getName() + " is sending command '" + (command == null ? "<unknown>" : command) + "' too fast. Ignoring");
+        }
+        return false;
+    }
+
+    // Log (throttled per connection) why a packet is ignored. Always returns false
+    static boolean reject(EntityPlayerMP player, String reason) {
+        NetworkSession session = NetworkSession.get(player);
+        if (session == null) {
+            Logging.log("Rejected packet from " + player.getName() + ": " + reason);
+            return false;
+        }
+        TokenBucket bucket = session.getRejectLogBucket();
+        if (bucket.tryConsume()) {
+            Logging.log("Rejected packet from " + player.getName() + ": " + reason);
+        } else if (bucket.startThrottling()) {
+            Logging.log("Rejecting too many packets from " + player.getName() + ". Not logging them for a while");
+        }
+        return false;
+    }
+}
@@ -0,0 +1,52 @@
+package mcjty.lib.network;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of well known command names (and mod ids). Every name gets a small int id so
+ * handlers can dispatch on the id instead of a chain of String.equals(). Strings that are
+ * defined in a session dictionary (see NetworkTools.readSessionString()) are replaced with
+ * the registered constant so that getId() usually only needs an identity check.
+ * Register names during startup (i.e. in a static initializer).
+ */
+public class CommandNames {
+
+    public static final int UNKNOWN = 0;
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static final Map<String, String> canonical = new ConcurrentHashMap<>();
+
+    /**
+     * Register a name and return its id. Registering the same name again returns the same id
+     */
+    public static synchronized int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        int newId = ids.size() + 1;
+        ids.put(name, newId);
+        canonical.put(name, name);
+        return newId;
+    }
+
+    /**
+     * The registered constant for this name or the name itself if it is not registered
+     */
+    public static String canonical(String name) {
+        String constant = canonical.get(name);
+        return constant == null ? name : constant;
+    }
+
+    /**
+     * The id of a registered name or UNKNOWN
+     */
+    public static int getId(String name) {
+        if (name == null) {
+            return UNKNOWN;
+        }
+        Integer id = ids.get(name);
+        return id == null ? UNKNOWN : id;
+    }
+}
@@ -0,0 +1,307 @@
+package mcjty.lib.network;
+
+import mcjty.lib.base.GeneralConfig;
+import mcjty.lib.debugtools.TileEntityProfiler;
+import mcjty.lib.typed.TypedMap;
+import mcjty.lib.varia.Logging;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server side cache for the results of PacketRequestDataFromServer. Results of
+ * executeWithResult() for commands that were declared read-only (declareReadOnly()) are
+ * kept for 'dataRequestCacheTicks' ticks (keyed by dimension, position, command and
+ * parameters) so that many players polling the same tile entity only cost one call.
+ * Other commands are always executed because they might have side effects.
+ *
+ * Clients can also subscribe to a command (GenericTileEntity.subscribeDataFromServer()).
+ * The server evaluates every subscription once every 'dataSubscriptionTicks' ticks and only
+ * sends a PacketDataFromServer to the subscribers when the result changed. Subscriptions
+ * are leases which the client renews as long as it is interested. They expire after LEASE_TICKS.
+ *
+ * Server side everything here is only used on the main thread.
+ */
+public class DataRequestCache {
+
+    public static final int LEASE_TICKS = 100;
+    public static final int MAX_SUBSCRIPTIONS_PER_PLAYER = 32;
+
+    // Client side renewal time. Half of the lease time (50ms per tick)
+    private static final long CLIENT_RENEW_MS = LEASE_TICKS * 50 / 2;
+
+    // Commands without side effects per tile entity class. Only their results are cached
+    private static final Map<Class<?>, Set<String>> readOnlyCommands = new ConcurrentHashMap<>();
+
+    private static long ticks = 0;
+    private static final Map<RequestKey, CachedResult> cache = new HashMap<>();
+    private static final Map<RequestKey, Subscription> subscriptions = new HashMap<>();
+
+    // Client side
+    private static final Map<RequestKey, Long> clientLeases = new HashMap<>();
+
+    private static class RequestKey {
+        private final int dimension;
+        private final BlockPos pos;
+        private final String command;
+        private final TypedMap params;
+        private final int hash;
+
+        private RequestKey(int dimension, BlockPos pos, String command, TypedMap params) {
+            this.dimension = dimension;
+            this.pos = pos;
+            this.command = command;
+            this.params = params;
+            this.hash = Objects.hash(dimension, pos, command, params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RequestKey that = (RequestKey) o;
+            return hash == that.hash && dimension == that.dimension && pos.equals(that.pos)
+                    && Objects.equals(command, that.command) && Objects.equals(params, that.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class CachedResult {
+        @Nullable private final TypedMap result;
+        private final long expires;
+
+        private CachedResult(@Nullable TypedMap result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    private static class Subscriber {
+        private final SimpleNetworkWrapper network;
+        private long leaseEnd;
+
+        private Subscriber(SimpleNetworkWrapper network, long leaseEnd) {
+            this.network = network;
+            this.leaseEnd = leaseEnd;
+        }
+    }
+
+    // Subscribers are keyed by UUID because the player entity is replaced on respawn
+    private static class Subscription {
+        private final Map<UUID, Subscriber> subscribers = new HashMap<>();
+        @Nullable private TypedMap last = null;
+    }
+
+    /**
+     * Declare a command of a tile entity class (and its subclasses) that has no side effects
+     * so that its result can be cached and shared between players
+     */
+    public static void declareReadOnly(Class<? extends ICommandHandler> clazz, String command) {
+        readOnlyCommands.computeIfAbsent(clazz, c -> ConcurrentHashMap.newKeySet()).add(command);
+    }
+
+    private static boolean isReadOnly(Class<?> clazz, String command) {
+        while (clazz != null) {
+            Set<String> commands = readOnlyCommands.get(clazz);
+            if (commands != null && commands.contains(command)) {
+                return true;
+            }
+            clazz = clazz.getSuperclass();
+        }
+        return false;
+    }
+
+    /**
+     * Call executeWithResult() on the handler or return the cached result if the command
+     * is read-only and the same request was done less then 'dataRequestCacheTicks' ago
+     */
+    @Nullable
+    public static TypedMap executeWithResult(World world, BlockPos pos, ICommandHandler handler, String command, TypedMap params) {
+        int ttl = GeneralConfig.dataRequestCacheTicks;
+        if (ttl <= 0 || !isReadOnly(handler.getClass(), command)) {
+            return execute(handler, command, params);
+        }
+        RequestKey key = new RequestKey(world.provider.getDimension(), pos, command, params);
+        CachedResult cached = cache.get(key);
+        if (cached != null && cached.expires > ticks) {
+            return cached.result;
+        }
+        TypedMap result = execute(handler, command, params);
+        cache.put(key, new CachedResult(result, ticks + ttl));
+        return result;
+    }
+
+    @Nullable
+    private static TypedMap execute(ICommandHandler handler, String command, TypedMap params) {
+        long start = TileEntityProfiler.start();
+        TypedMap result = handler.executeWithResult(command, params);
+        if (handler instanceof TileEntity) {
+            TileEntityProfiler.command((TileEntity) handler, start);
+        }
+        return result;
+    }
+
+    static void subscribe(EntityPlayerMP player, SimpleNetworkWrapper network, BlockPos pos, String command, TypedMap params) {
+        RequestKey key = new RequestKey(player.getEntityWorld().provider.getDimension(), pos, command, params);
+        Subscription subscription = subscriptions.get(key);
+        if (subscription == null) {
+            if (countSubscriptions(player) >= MAX_SUBSCRIPTIONS_PER_PLAYER) {
+                Logging.log("Too many data subscriptions for " + player.getName() + "!");
+                return;
+            }
+            subscription = new Subscription();
+            subscriptions.put(key, subscription);
+        }
+        Subscriber subscriber = subscription.subscribers.get(player.getUniqueID());
+        if (subscriber != null) {
+            // Renewal of the lease
+            subscriber.leaseEnd = ticks + LEASE_TICKS;
+            return;
+        }
+        subscriber = new Subscriber(network, ticks + LEASE_TICKS);
+        subscription.subscribers.put(player.getUniqueID(), subscriber);
+        if (subscription.last == null) {
+            subscription.last = evaluate(key);
+        }
+        // A new subscriber immediately gets the current value
+        if (subscription.last != null) {
+            subscriber.network.sendTo(new PacketDataFromServer(pos, command, subscription.last), player);
+        }
+    }
+
+    static void unsubscribe(EntityPlayerMP player, BlockPos pos, String command, TypedMap params) {
+        RequestKey key = new RequestKey(player.getEntityWorld().provider.getDimension(), pos, command, params);
+        Subscription subscription = subscriptions.get(key);
+        if (subscription != null) {
+            subscription.subscribers.remove(player.getUniqueID());
+            if (subscription.subscribers.isEmpty()) {
+                subscriptions.remove(key);
+            }
+        }
+    }
+
+    private static int countSubscriptions(EntityPlayerMP player) {
+        int cnt = 0;
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.subscribers.containsKey(player.getUniqueID())) {
+                cnt++;
+            }
+        }
+        return cnt;
+    }
+
+    @Nullable
+    private static TypedMap evaluate(RequestKey key) {
+        WorldServer world = DimensionManager.getWorld(key.dimension);
+        if (world == null || !world.isBlockLoaded(key.pos)) {
+            return null;
+        }
+        TileEntity te = world.getTileEntity(key.pos);
+        if (!(te instanceof ICommandHandler)) {
+            return null;
+        }
+        return executeWithResult(world, key.pos, (ICommandHandler) te, key.command, key.params);
+    }
+
+    /**
+     * Called at the end of every server tick
+     */
+    public static void tick() {
+        ticks++;
+        if (ticks % 20 == 0) {
+            cache.values().removeIf(cached -> cached.expires <= ticks);
+        }
+        int interval = Math.max(1, GeneralConfig.dataSubscriptionTicks);
+        if (ticks % interval != 0 || subscriptions.isEmpty()) {
+            return;
+        }
+        Iterator<Map.Entry<RequestKey, Subscription>> iterator = subscriptions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<RequestKey, Subscription> entry = iterator.next();
+            Subscription subscription = entry.getValue();
+            subscription.subscribers.entrySet().removeIf(e -> e.getValue().leaseEnd <= ticks || getPlayer(e.getKey()) == null);
+            if (subscription.subscribers.isEmpty()) {
+                iterator.remove();
+                continue;
+            }
+            RequestKey key = entry.getKey();
+            TypedMap result = evaluate(key);
+            if (result != null && !result.equals(subscription.last)) {
+                subscription.last = result;
+                for (Map.Entry<UUID, Subscriber> e : subscription.subscribers.entrySet()) {
+                    EntityPlayerMP player = getPlayer(e.getKey());
+                    if (player != null) {
+                        e.getValue().network.sendTo(new PacketDataFromServer(key.pos, key.command, result), player);
+                    }
+                }
+            }
+        }
+    }
+
+    // The current entity of a player or null if the player is not online
+    @Nullable
+    private static EntityPlayerMP getPlayer(UUID uuid) {
+        MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+        return server == null ? null : server.getPlayerList().getPlayerByUUID(uuid);
+    }
+
+    public static void onPlayerLoggedOut(EntityPlayer player) {
+        Iterator<Subscription> iterator = subscriptions.values().iterator();
+        while (iterator.hasNext()) {
+            Subscription subscription = iterator.next();
+            subscription.subscribers.remove(player.getUniqueID());
+            if (subscription.subscribers.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // Only use client-side! Send a subscription (or renew it) if that is needed
+    public static void subscribeClient(String modid, World world, BlockPos pos, String command, TypedMap params) {
+        RequestKey key = new RequestKey(world.provider.getDimension(), pos, command, params);
+        long now = System.currentTimeMillis();
+        Long renew = clientLeases.get(key);
+        if (renew != null && renew > now) {
+            return;
+        }
+        clientLeases.put(key, now + CLIENT_RENEW_MS);
+        PacketHandler.modNetworking.get(modid).sendToServer(new PacketSubscribeDataFromServer(modid, pos, command, params, true));
+    }
+
+    // Only use client-side!
+    public static void unsubscribeClient(String modid, World world, BlockPos pos, String command, TypedMap params) {
+        RequestKey key = new RequestKey(world.provider.getDimension(), pos, command, params);
+        if (clientLeases.remove(key) != null) {
+            PacketHandler.modNetworking.get(modid).sendToServer(new PacketSubscribeDataFromServer(modid, pos, command, params, false));
+        }
+    }
+
+    // Only use client-side!
+    public static void onClientDisconnect() {
+        clientLeases.clear();
+    }
+}
@@ -13,8 +13,14 @@ import java.util.List;
 public interface IClientCommandHandler {
 
     /// Return true if command was handled correctly. False if not.
+    /// For lists that are streamed (ListStreams.requestList()) this is called with the complete list after the last chunk.
     <T> boolean receiveListFromServer(String command, List<T> list, Type<T> type);
 
     /// Return true if command was handled correctly. False if not.
     boolean receiveDataFromServer(String command, @Nonnull TypedMap result);
+
+    /// Called for every chunk of a list that is streamed with ListStreams.requestList(). 'offset' is the
+    /// index of the first element of this chunk and 'total' the size of the complete list.
+    default <T> void receiveListChunkFromServer(String command, List<T> chunk, int offset, int total, Type<T> type) {
+    }
 }
@@ -18,7 +18,7 @@ public interface ICommandHandler {
         return false;
     }
 
-    /// Return the result which will be sent back to the client
+    /// Return the result which will be sent back to the client. Also used for lists that are streamed (ListStreams)
     @Nonnull
     <T> List<T> executeWithResultList(String command, TypedMap args, Type<T> type);
 
@@ -0,0 +1,235 @@
+package mcjty.lib.network;
+
+import mcjty.lib.typed.Key;
+import mcjty.lib.typed.Type;
+import mcjty.lib.typed.TypedMap;
+import mcjty.lib.varia.Logging;
+import net.minecraft.client.Minecraft;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Streaming transfer of big list results (ICommandHandler.executeWithResultList()).
+ * Start a transfer client-side with requestList(). The server splits the list in chunks
+ * of at most CHUNK_SIZE elements and keeps at most WINDOW chunks in flight for every
+ * stream. The client acknowledges every chunk after it has been handled which allows the
+ * server to send the next one.
+ *
+ * The client tile entity gets every chunk as soon as it arrives through
+ * IClientCommandHandler.receiveListChunkFromServer() and the complete list through
+ * receiveListFromServer() when the last chunk has arrived.
+ */
+public class ListStreams {
+
+    public static final int CHUNK_SIZE = 256;
+    public static final int WINDOW = 4;
+    public static final int MAX_STREAMS_PER_PLAYER = 8;
+
+    // Supported element types. The index in this list is sent over the network
+    private static final List<Type<?>> ELEMENT_TYPES = Arrays.asList(Type.STRING, Type.ITEMSTACK, Type.BLOCKPOS);
+    private static final Key<?>[] CHUNK_KEYS = new Key<?>[] {
+            new Key<>("list", Type.STRING_LIST),
+            new Key<>("list", Type.ITEMSTACK_LIST),
+            new Key<>("list", Type.POS_LIST)
+    };
+
+    // Server side, only used on the main thread. Keyed by UUID because the player entity is replaced on respawn
+    private static final Map<UUID, Map<Integer, ServerStream>> serverStreams = new HashMap<>();
+
+    // Client side
+    private static final Map<Integer, ClientStream> clientStreams = new HashMap<>();
+    private static int lastStreamId = 0;
+
+    private static class ServerStream {
+        private final SimpleNetworkWrapper network;
+        private final int id;
+        private final int typeIndex;
+        private final List<?> list;
+        private int offset = 0;
+        private int seq = 0;
+        private int inFlight = 0;
+        // Highest sequence number the client acknowledged
+        private int lastAcked = -1;
+
+        private ServerStream(SimpleNetworkWrapper network, int id, int typeIndex, List<?> list) {
+            this.network = network;
+            this.id = id;
+            this.typeIndex = typeIndex;
+            this.list = list;
+        }
+
+        private boolean isDone() {
+            // An empty list still needs one (empty) chunk
+            return seq > 0 && offset >= list.size();
+        }
+    }
+
+    private static class ClientStream {
+        private final SimpleNetworkWrapper network;
+        private final BlockPos pos;
+        private final String command;
+        private final List<Object> received = new ArrayList<>();
+        private int nextSeq = 0;
+
+        private ClientStream(SimpleNetworkWrapper network, BlockPos pos, String command) {
+            this.network = network;
+            this.pos = pos;
+            this.command = command;
+        }
+    }
+
+    static int getTypeIndex(Type<?> type) {
+        return ELEMENT_TYPES.indexOf(type);
+    }
+
+    static int getTypeCount() {
+        return ELEMENT_TYPES.size();
+    }
+
+    static Type<?> getElementType(int typeIndex) {
+        if (typeIndex < 0 || typeIndex >= ELEMENT_TYPES.size()) {
+            throw new RuntimeException("Unsupported list type " + typeIndex + "!");
+        }
+        return ELEMENT_TYPES.get(typeIndex);
+    }
+
+    static <T> Key<List<T>> getChunkKey(int typeIndex) {
+        getElementType(typeIndex);
+        return (Key<List<T>>) CHUNK_KEYS[typeIndex];
+    }
+
+    /**
+     * Client side: ask the tile entity at this position for a list (executeWithResultList())
+     * and stream the result back. Only STRING, ITEMSTACK and BLOCKPOS element types are supported
+     */
+    public static synchronized <T> void requestList(SimpleNetworkWrapper network, String modid, BlockPos pos, String command,
+                                                    @Nonnull TypedMap params, Type<T> type) {
+        int typeIndex = getTypeIndex(type);
+        if (typeIndex == -1) {
+            throw new IllegalArgumentException("Unsupported type " + type + " for streaming lists!");
+        }
+        lastStreamId++;
+        clientStreams.put(lastStreamId, new ClientStream(network, pos, command));
+        network.sendToServer(new PacketRequestListFromServer(modid, pos, command, params, typeIndex, lastStreamId));
+    }
+
+    // Server side
+    static void startStream(EntityPlayerMP player, SimpleNetworkWrapper network, int id, int typeIndex, List<?> list) {
+        Map<Integer, ServerStream> streams = serverStreams.computeIfAbsent(player.getUniqueID(), p -> new LinkedHashMap<>());
+        if (streams.size() >= MAX_STREAMS_PER_PLAYER && !streams.containsKey(id)) {
+            Iterator<Integer> iterator = streams.keySet().iterator();
+            Logging.log("Too many list streams for " + player.getName() + ", dropping stream " + iterator.next());
+            iterator.remove();
+        }
+        // Copy the list so that later changes to it don't affect the transfer
+        ServerStream stream = new ServerStream(network, id, typeIndex, new ArrayList<>(list));
+        streams.put(id, stream);
+        sendChunks(player, streams, stream);
+    }
+
+    // Server side. A negative sequence number means that the client is no longer interested
+    static void acknowledge(EntityPlayerMP player, int id, int seq) {
+        Map<Integer, ServerStream> streams = serverStreams.get(player.getUniqueID());
+        ServerStream stream = streams == null ? null : streams.get(id);
+        if (stream == null) {
+            return;
+        }
+        if (seq < 0) {
+            streams.remove(id);
+            return;
+        }
+        // Acks are cumulative. Duplicate, old or forged acks (for chunks that were not sent yet) are ignored
+        if (seq <= stream.lastAcked || seq >= stream.seq) {
+            return;
+        }
+        stream.lastAcked = seq;
+        stream.inFlight = stream.seq - 1 - seq;
+        sendChunks(player, streams, stream);
+    }
+
+    private static void sendChunks(EntityPlayerMP player, Map<Integer, ServerStream> streams, ServerStream stream) {
+        while (stream.inFlight < WINDOW && !stream.isDone()) {
+            int end = Math.min(stream.list.size(), stream.offset + CHUNK_SIZE);
+            TypedMap chunk = TypedMap.builder()
+                    .put(ListStreams.<Object>getChunkKey(stream.typeIndex), new ArrayList<>(stream.list.subList(stream.offset, end)))
+                    .build();
+            PacketListChunkFromServer msg = new PacketListChunkFromServer(stream.id, stream.seq, stream.offset, stream.list.size(),
+                    stream.typeIndex, chunk);
+            stream.offset = end;
+            stream.seq++;
+            stream.inFlight++;
+            stream.network.sendTo(msg, player);
+        }
+        if (stream.isDone()) {
+            streams.remove(stream.id);
+        }
+    }
+
+    public static void onPlayerLoggedOut(EntityPlayer player) {
+        serverStreams.remove(player.getUniqueID());
+    }
+
+    // Only use client-side! Called on the main thread
+    static void receiveChunk(PacketListChunkFromServer message) {
+        ClientStream stream;
+        synchronized (ListStreams.class) {
+            stream = clientStreams.get(message.getStreamId());
+            if (stream == null) {
+                return;
+            }
+            if (message.getSeq() != stream.nextSeq || message.getOffset() != stream.received.size()) {
+                Logging.logError("List stream " + message.getStreamId() + " is out of sequence!");
+                clientStreams.remove(message.getStreamId());
+                // Let the server drop its side of the stream too
+                stream.network.sendToServer(new PacketListChunkAck(message.getStreamId(), -1));
+                return;
+            }
+            stream.nextSeq++;
+            if (message.isLast()) {
+                clientStreams.remove(message.getStreamId());
+            }
+        }
+
+        TileEntity te = Minecraft.getMinecraft().world.getTileEntity(stream.pos);
+        if (!(te instanceof IClientCommandHandler)) {
+            Logging.log("receiveChunk: TileEntity is not a ClientCommandHandler!");
+            synchronized (ListStreams.class) {
+                clientStreams.remove(message.getStreamId());
+            }
+            if (!message.isLast()) {
+                stream.network.sendToServer(new PacketListChunkAck(message.getStreamId(), -1));
+            }
+            return;
+        }
+        IClientCommandHandler handler = (IClientCommandHandler) te;
+        Type<Object> type = (Type<Object>) getElementType(message.getTypeIndex());
+        List<Object> chunk = message.getChunk().get(getChunkKey(message.getTypeIndex()));
+        stream.received.addAll(chunk);
+        handler.receiveListChunkFromServer(stream.command, chunk, message.getOffset(), message.getTotal(), type);
+        if (message.isLast()) {
+            if (!handler.receiveListFromServer(stream.command, stream.received, type)) {
+                Logging.log("Command " + stream.command + " was not handled!");
+            }
+        } else {
+            stream.network.sendToServer(new PacketListChunkAck(message.getStreamId(), message.getSeq()));
+        }
+    }
+
+    // Only use client-side!
+    public static synchronized void onClientDisconnect() {
+        clientStreams.clear();
+    }
+}
@@ -0,0 +1,291 @@
+package mcjty.lib.network;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import mcjty.lib.McJtyLib;
+import mcjty.lib.base.GeneralConfig;
+import net.minecraftforge.fml.common.network.FMLEmbeddedChannel;
+import net.minecraftforge.fml.common.network.NetworkRegistry;
+import net.minecraftforge.fml.common.network.internal.FMLProxyPacket;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+import net.minecraftforge.fml.relauncher.Side;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional counters for the messages of the channels created with PacketHandler.registerMessages().
+ * For every message type (and for every known command of the command packets) this keeps the
+ * number of messages, bytes in and out, encode and decode time and the time spent in the handler
+ * on the main thread. Enable with the 'networkMetrics' config or '/mcjtylib netstats on'.
+ *
+ * Two small handlers are added to the FML channels of the wrapper. The one at the end of
+ * the pipeline measures the encode time of outgoing messages, the one at the start sees
+ * the encoded packets (bytes out and in) and notes the start of decoding.
+ */
+public class NetworkMetrics {
+
+    public static final String UNKNOWN_COMMAND = "<unknown>";
+
+    private static final Map<String, ChannelMetrics> channels = new ConcurrentHashMap<>();
+    private static final Map<SimpleNetworkWrapper, ChannelMetrics> wrappers = new ConcurrentHashMap<>();
+
+    // Set by the handler at the start of the pipeline (all of this happens synchronously in the embedded channel)
+    private static final ThreadLocal<long[]> current = ThreadLocal.withInitial(() -> new long[2]);
+    private static final int BYTES = 0;
+    private static final int START = 1;
+
+    public static class Counters {
+        private final LongAdder messagesIn = new LongAdder();
+        private final LongAdder messagesOut = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder encodeNanos = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+        private final LongAdder handlerNanos = new LongAdder();
+
+        public void addHandlerTime(long nanos) {
+            handlerNanos.add(nanos);
+        }
+
+        public long getTotalBytes() {
+            return bytesIn.sum() + bytesOut.sum();
+        }
+
+        private void reset() {
+            messagesIn.reset();
+            messagesOut.reset();
+            bytesIn.reset();
+            bytesOut.reset();
+            encodeNanos.reset();
+            decodeNanos.reset();
+            handlerNanos.reset();
+        }
+
+        private JsonObject toJson(String name) {
+            JsonObject object = new JsonObject();
+            object.add("name", new JsonPrimitive(name));
+            object.add("messagesIn", new JsonPrimitive(messagesIn.sum()));
+            object.add("messagesOut", new JsonPrimitive(messagesOut.sum()));
+            object.add("bytesIn", new JsonPrimitive(bytesIn.sum()));
+            object.add("bytesOut", new JsonPrimitive(bytesOut.sum()));
+            object.add("encodeNanos", new JsonPrimitive(encodeNanos.sum()));
+            object.add("decodeNanos", new JsonPrimitive(decodeNanos.sum()));
+            object.add("handlerNanos", new JsonPrimitive(handlerNanos.sum()));
+            return object;
+        }
+
+        @Override
+        public String toString() {
+            return "in " + messagesIn.sum() + " (" + bytesIn.sum() + " bytes), out " + messagesOut.sum() + " (" + bytesOut.sum()
+                    + " bytes), encode " + encodeNanos.sum() / 1000 + "us, decode " + decodeNanos.sum() / 1000
+                    + "us, handler " + handlerNanos.sum() / 1000 + "us";
+        }
+    }
+
+    public static class ChannelMetrics {
+        private final String name;
+        private final Map<String, Counters> messages = new ConcurrentHashMap<>();
+        private final Map<String, Counters> commands = new ConcurrentHashMap<>();
+
+        private ChannelMetrics(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Counters getMessageCounters(Class<?> messageType) {
+            return messages.computeIfAbsent(messageType.getSimpleName(), n -> new Counters());
+        }
+
+        public Counters getCommandCounters(String command) {
+            return commands.computeIfAbsent(command, n -> new Counters());
+        }
+    }
+
+    public static boolean isEnabled() {
+        return GeneralConfig.networkMetrics;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        GeneralConfig.networkMetrics = enabled;
+    }
+
+    /**
+     * Add the metrics handlers to both sides of this network wrapper
+     */
+    public static void install(SimpleNetworkWrapper network, String channelName) {
+        ChannelMetrics metrics = channels.computeIfAbsent(channelName, ChannelMetrics::new);
+        wrappers.put(network, metrics);
+        for (Side side : Side.values()) {
+            FMLEmbeddedChannel channel = NetworkRegistry.INSTANCE.getChannel(channelName, side);
+            if (channel != null) {
+                ChannelPipeline pipeline = channel.pipeline();
+                pipeline.addAfter("fml:outbound", "mcjtylib:metrics_packets", new PacketMetricsHandler());
+                pipeline.addLast("mcjtylib:metrics_encode", new EncodeMetricsHandler(metrics));
+            }
+        }
+    }
+
+    /**
+     * Called on the netty thread when a message of this wrapper was decoded. Returns
+     * the counters for the command of this message (if it has one) or null
+     */
+    @Nullable
+    public static Counters received(SimpleNetworkWrapper network, Object message, Counters messageCounters) {
+        long[] cur = current.get();
+        long decode = System.nanoTime() - cur[START];
+        messageCounters.messagesIn.increment();
+        messageCounters.bytesIn.add(cur[BYTES]);
+        messageCounters.decodeNanos.add(decode);
+        String command = getCommand(message);
+        if (command == null) {
+            return null;
+        }
+        Counters commandCounters = wrappers.get(network).getCommandCounters(command);
+        commandCounters.messagesIn.increment();
+        commandCounters.bytesIn.add(cur[BYTES]);
+        commandCounters.decodeNanos.add(decode);
+        return commandCounters;
+    }
+
+    @Nullable
+    public static Counters getMessageCounters(SimpleNetworkWrapper network, Class<?> messageType) {
+        ChannelMetrics metrics = wrappers.get(network);
+        return metrics == null ? null : metrics.getMessageCounters(messageType);
+    }
+
+    // The command strings come from the client so only known commands get their own counters.
+    // Everything else is counted under UNKNOWN_COMMAND
+    @Nullable
+    private static String getCommand(Object message) {
+        String command;
+        boolean known;
+        if (message instanceof PacketServerCommandTyped) {
+            command = ((PacketServerCommandTyped) message).getCommand();
+            known = CommandGuard.isDeclared(command);
+        } else if (message instanceof PacketSendServerCommand) {
+            PacketSendServerCommand packet = (PacketSendServerCommand) message;
+            command = packet.getCommand();
+            known = McJtyLib.hasServerCommand(packet.getModid(), command);
+        } else if (message instanceof PacketRequestDataFromServer) {
+            command = ((PacketRequestDataFromServer) message).getCommand();
+            known = CommandGuard.isDeclared(command);
+        } else {
+            return null;
+        }
+        return known ? command : UNKNOWN_COMMAND;
+    }
+
+    public static void reset() {
+        for (ChannelMetrics metrics : channels.values()) {
+            metrics.messages.values().forEach(Counters::reset);
+            metrics.commands.values().forEach(Counters::reset);
+        }
+    }
+
+    /**
+     * A short report with the message types that used the most bytes
+     */
+    public static List<String> getReport(int max) {
+        List<Pair<String, Counters>> all = new ArrayList<>();
+        for (ChannelMetrics metrics : channels.values()) {
+            metrics.messages.forEach((name, counters) -> all.add(Pair.of(metrics.name + "/" + name, counters)));
+            metrics.commands.forEach((name, counters) -> all.add(Pair.of(metrics.name + "/cmd:" + name, counters)));
+        }
+        all.sort(Comparator.comparingLong((Pair<String, Counters> p) -> p.getRight().getTotalBytes()).reversed());
+        List<String> report = new ArrayList<>();
+        for (int i = 0 ; i < Math.min(max, all.size()) ; i++) {
+            report.add(all.get(i).getLeft() + ": " + all.get(i).getRight());
+        }
+        return report;
+    }
+
+    public static JsonObject toJson() {
+        JsonObject root = new JsonObject();
+        root.add("enabled", new JsonPrimitive(isEnabled()));
+        JsonArray array = new JsonArray();
+        for (ChannelMetrics metrics : channels.values()) {
+            JsonObject channel = new JsonObject();
+            channel.add("channel", new JsonPrimitive(metrics.name));
+            JsonArray messages = new JsonArray();
+            metrics.messages.forEach((name, counters) -> messages.add(counters.toJson(name)));
+            channel.add("messages", messages);
+            JsonArray commands = new JsonArray();
+            metrics.commands.forEach((name, counters) -> commands.add(counters.toJson(name)));
+            channel.add("commands", commands);
+            array.add(channel);
+        }
+        root.add("channels", array);
+        return root;
+    }
+
+    // At the start of the pipeline: sees the encoded packets in both directions
+    private static class PacketMetricsHandler extends ChannelDuplexHandler {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (isEnabled() && msg instanceof FMLProxyPacket) {
+                long[] cur = current.get();
+                cur[BYTES] = ((FMLProxyPacket) msg).payload().readableBytes();
+                cur[START] = System.nanoTime();
+            }
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (isEnabled() && msg instanceof FMLProxyPacket) {
+                current.get()[BYTES] = ((FMLProxyPacket) msg).payload().readableBytes();
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+
+    // At the end of the pipeline: sees the messages before they are encoded
+    private static class EncodeMetricsHandler extends ChannelOutboundHandlerAdapter {
+        private final ChannelMetrics metrics;
+
+        private EncodeMetricsHandler(ChannelMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (!isEnabled()) {
+                super.write(ctx, msg, promise);
+                return;
+            }
+            long[] cur = current.get();
+            cur[BYTES] = 0;
+            long start = System.nanoTime();
+            super.write(ctx, msg, promise);
+            long time = System.nanoTime() - start;
+            Counters counters = metrics.getMessageCounters(msg.getClass());
+            counters.messagesOut.increment();
+            counters.bytesOut.add(cur[BYTES]);
+            counters.encodeNanos.add(time);
+            String command = getCommand(msg);
+            if (command != null) {
+                Counters commandCounters = metrics.getCommandCounters(command);
+                commandCounters.messagesOut.increment();
+                commandCounters.bytesOut.add(cur[BYTES]);
+                commandCounters.encodeNanos.add(time);
+            }
+        }
+    }
+}
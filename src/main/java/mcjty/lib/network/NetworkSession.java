@@ -0,0 +1,199 @@
+package mcjty.lib.network;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.util.AttributeKey;
+import mcjty.lib.base.GeneralConfig;
+import mcjty.lib.typed.Key;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetworkManager;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State that is kept per network connection (one per player on the server and a single
+ * one on the client). Packets can find the session of the connection they are being
+ * encoded for through encoding() and the one they are decoded from through decoding().
+ *
+ * On receive the session is set by a small handler in the netty pipeline. Mod packets
+ * are decoded synchronously on the netty thread while that handler is active. On send
+ * the session is set by the wrapper created in PacketHandler.registerMessages().
+ * Messages that are sent to multiple players at once have no session and
+ * always use the legacy formats.
+ */
+public class NetworkSession {
+
+    /// Version of the compact codec. Zero means that the other side doesn't support it
+    public static final int CODEC_VERSION = 1;
+
+    private static final String HANDLER_NAME = "mcjtylib:session";
+    private static final AttributeKey<NetworkSession> SESSION = AttributeKey.valueOf("mcjtylib:session");
+    private static final ThreadLocal<NetworkSession> ENCODING = new ThreadLocal<>();
+    private static final ThreadLocal<NetworkSession> DECODING = new ThreadLocal<>();
+
+    private static NetworkSession clientSession = null;
+
+    private volatile int peerCodecVersion = 0;
+
+    private final SessionDictionary<Key<?>> keys = new SessionDictionary<>(4096);
+    private final SessionDictionary<String> strings = new SessionDictionary<>(4096);
+    private final SessionDictionary<StackPrototype> stacks = new SessionDictionary<>(8192);
+    // Only for commands that are known on the server (see CommandGuard)
+    private final Map<String, TokenBucket> commandBuckets = new ConcurrentHashMap<>();
+    private final TokenBucket unknownCommandBucket = new TokenBucket(GeneralConfig.commandRate, GeneralConfig.commandBurst);
+    private final TokenBucket totalCommandBucket = new TokenBucket(GeneralConfig.commandTotalRate, GeneralConfig.commandTotalRate * 2.0);
+    private final TokenBucket rejectLogBucket = new TokenBucket(1, 10);
+
+    public int getPeerCodecVersion() {
+        return peerCodecVersion;
+    }
+
+    public void setPeerCodecVersion(int version) {
+        this.peerCodecVersion = Math.min(version, CODEC_VERSION);
+    }
+
+    public boolean isCompact() {
+        return peerCodecVersion >= 1;
+    }
+
+    public SessionDictionary<Key<?>> getKeys() {
+        return keys;
+    }
+
+    public SessionDictionary<String> getStrings() {
+        return strings;
+    }
+
+    public SessionDictionary<StackPrototype> getStacks() {
+        return stacks;
+    }
+
+    /// Rate limiter for a known command received on this connection (see CommandGuard)
+    public TokenBucket getCommandBucket(String command) {
+        return commandBuckets.computeIfAbsent(command, c -> new TokenBucket(GeneralConfig.commandRate, GeneralConfig.commandBurst));
+    }
+
+    /// Rate limiter shared by all unknown commands received on this connection
+    public TokenBucket getUnknownCommandBucket() {
+        return unknownCommandBucket;
+    }
+
+    /// Rate limiter for all commands together
+    public TokenBucket getTotalCommandBucket() {
+        return totalCommandBucket;
+    }
+
+    /// Limits the logging of rejected packets from this connection
+    public TokenBucket getRejectLogBucket() {
+        return rejectLogBucket;
+    }
+
+    /**
+     * The session of the connection for which a packet is currently being
+     * encoded on this thread. Can be null
+     */
+    @Nullable
+    public static NetworkSession encoding() {
+        return ENCODING.get();
+    }
+
+    /**
+     * The session of the connection from which a packet is currently being
+     * decoded on this thread. Can be null
+     */
+    @Nullable
+    public static NetworkSession decoding() {
+        return DECODING.get();
+    }
+
+    /**
+     * Set the session to encode for and return the previous one
+     * which should be given to exit() afterwards.
+     */
+    @Nullable
+    public static NetworkSession enter(@Nullable NetworkSession session) {
+        return swap(ENCODING, session);
+    }
+
+    public static void exit(@Nullable NetworkSession prev) {
+        swap(ENCODING, prev);
+    }
+
+    private static NetworkSession swap(ThreadLocal<NetworkSession> local, @Nullable NetworkSession session) {
+        NetworkSession prev = local.get();
+        if (session == null) {
+            local.remove();
+        } else {
+            local.set(session);
+        }
+        return prev;
+    }
+
+    @Nullable
+    public static NetworkSession get(@Nullable NetworkManager manager) {
+        if (manager == null) {
+            return null;
+        }
+        return manager.channel().attr(SESSION).get();
+    }
+
+    @Nullable
+    public static NetworkSession get(EntityPlayerMP player) {
+        if (player.connection == null) {
+            return null;
+        }
+        return get(player.connection.getNetworkManager());
+    }
+
+    // Only use client-side!
+    @Nullable
+    public static NetworkSession getClientSession() {
+        return clientSession;
+    }
+
+    /**
+     * Create a new session for this connection. Called for every new connection on both sides
+     */
+    public static NetworkSession install(NetworkManager manager, boolean client) {
+        Channel channel = manager.channel();
+        NetworkSession session = new NetworkSession();
+        channel.attr(SESSION).set(session);
+        ChannelPipeline pipeline = channel.pipeline();
+        if (pipeline.get(HANDLER_NAME) != null) {
+            pipeline.remove(HANDLER_NAME);
+        }
+        String anchor = pipeline.get("fml:packet_handler") != null ? "fml:packet_handler" : "packet_handler";
+        pipeline.addBefore(anchor, HANDLER_NAME, new SessionHandler(session));
+        if (client) {
+            clientSession = session;
+        }
+        return session;
+    }
+
+    // Only use client-side!
+    public static void onClientDisconnect() {
+        clientSession = null;
+    }
+
+    private static class SessionHandler extends ChannelInboundHandlerAdapter {
+        private final NetworkSession session;
+
+        private SessionHandler(NetworkSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            NetworkSession prev = swap(DECODING, session);
+            try {
+                ctx.fireChannelRead(msg);
+            } finally {
+                swap(DECODING, prev);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package mcjty.lib.network;
 import io.netty.buffer.ByteBuf;
 import mcjty.lib.base.GeneralConfig;
 import mcjty.lib.varia.Logging;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.network.PacketBuffer;
@@ -61,6 +62,10 @@ public class NetworkTools {
 
     /// This function supports itemstacks with more then 64 items.
     public static ItemStack readItemStack(ByteBuf dataIn) {
+        if ((dataIn.getByte(dataIn.readerIndex()) & 0xff) == COMPACT_STACK_MARKER) {
+            dataIn.readByte();
+            return readItemStackCompact(dataIn);
+        }
         PacketBuffer buf = new PacketBuffer(dataIn);
         try {
             NBTTagCompound nbt = buf.readCompoundTag();
@@ -80,6 +85,12 @@ public class NetworkTools {
 
     /// This function supports itemstacks with more then 64 items.
     public static void writeItemStack(ByteBuf dataOut, @Nonnull ItemStack itemStack) {
+        NetworkSession session = NetworkSession.encoding();
+        if (session != null && session.isCompact()) {
+            dataOut.writeByte(COMPACT_STACK_MARKER);
+            writeItemStackCompact(dataOut, itemStack, session);
+            return;
+        }
         PacketBuffer buf = new PacketBuffer(dataOut);
         NBTTagCompound nbt = new NBTTagCompound();
         itemStack.writeToNBT(nbt);
@@ -91,6 +102,111 @@ public class NetworkTools {
         }
     }
 
+    // First byte of a compact stack. A legacy stack always starts with an NBT type (0 or 10)
+    private static final int COMPACT_STACK_MARKER = 0x80;
+
+    private static final int STACK_INLINE = 1;
+    private static final int STACK_DEFINE = 2;
+    private static final int STACK_REFERENCE = 3;
+
+    /**
+     * Compact stack format: a varint header (0 for an empty stack) and a varint count.
+     * The header is either an inline stack (registry id, meta and optional tag follow),
+     * a new cache entry (same as inline but remembered for this connection) or
+     * a reference to a stack that was sent before.
+     * The cache is only used if 'networkStackCache' is enabled in the config. Capability
+     * data of the stack is not sent (like vanilla does).
+     */
+    static void writeItemStackCompact(ByteBuf dataOut, @Nonnull ItemStack itemStack, NetworkSession session) {
+        if (itemStack.isEmpty()) {
+            writeVarInt(dataOut, 0);
+            return;
+        }
+        if (GeneralConfig.networkStackCache) {
+            SessionDictionary<StackPrototype> stacks = session.getStacks();
+            StackPrototype prototype = new StackPrototype(itemStack);
+            int id = stacks.lookup(prototype);
+            if (id == SessionDictionary.NO_ID) {
+                // Only copy the tag if this stack is going to be remembered
+                id = stacks.lookupOrDefine(prototype.copy());
+            }
+            if (id > 0) {
+                writeVarInt(dataOut, (id << 2) | STACK_REFERENCE);
+            } else if (id < 0) {
+                writeVarInt(dataOut, ((-id) << 2) | STACK_DEFINE);
+                writeStackPrototype(dataOut, itemStack);
+            } else {
+                writeVarInt(dataOut, STACK_INLINE);
+                writeStackPrototype(dataOut, itemStack);
+            }
+        } else {
+            writeVarInt(dataOut, STACK_INLINE);
+            writeStackPrototype(dataOut, itemStack);
+        }
+        writeVarInt(dataOut, Math.max(0, itemStack.getCount()));
+    }
+
+    static ItemStack readItemStackCompact(ByteBuf dataIn) {
+        int header = readVarInt(dataIn);
+        if (header == 0) {
+            return ItemStack.EMPTY;
+        }
+        ItemStack stack;
+        switch (header & 3) {
+            case STACK_INLINE:
+                stack = readStackPrototype(dataIn);
+                break;
+            case STACK_DEFINE:
+                stack = readStackPrototype(dataIn);
+                getDecodingSession().getStacks().define(header >>> 2, new StackPrototype(stack));
+                break;
+            case STACK_REFERENCE:
+                stack = getDecodingSession().getStacks().get(header >>> 2).createStack();
+                break;
+            default:
+                throw new RuntimeException("Bad compact stack header " + header + "!");
+        }
+        int amount = readVarInt(dataIn);
+        if (stack.isEmpty()) {
+            // Unknown item
+            return ItemStack.EMPTY;
+        }
+        stack.setCount(amount);
+        return stack;
+    }
+
+    private static NetworkSession getDecodingSession() {
+        NetworkSession session = NetworkSession.decoding();
+        if (session == null) {
+            throw new RuntimeException("Received cached stack outside of a network session!");
+        }
+        return session;
+    }
+
+    private static void writeStackPrototype(ByteBuf dataOut, @Nonnull ItemStack itemStack) {
+        writeVarInt(dataOut, Item.getIdFromItem(itemStack.getItem()));
+        writeSignedVarInt(dataOut, itemStack.getMetadata());
+        NBTTagCompound tag = itemStack.getTagCompound();
+        dataOut.writeBoolean(tag != null);
+        if (tag != null) {
+            writeTag(dataOut, tag);
+        }
+    }
+
+    private static ItemStack readStackPrototype(ByteBuf dataIn) {
+        int id = readVarInt(dataIn);
+        int meta = readSignedVarInt(dataIn);
+        NBTTagCompound tag = dataIn.readBoolean() ? readTag(dataIn) : null;
+        Item item = Item.getItemById(id);
+        if (item == null) {
+            Logging.logError("Received unknown item id " + id + "!");
+            return ItemStack.EMPTY;
+        }
+        ItemStack stack = new ItemStack(item, 1, meta);
+        stack.setTagCompound(tag);
+        return stack;
+    }
+
     public static String readString(ByteBuf dataIn) {
         int s = dataIn.readInt();
         if (s == -1) {
@@ -116,6 +232,63 @@ public class NetworkTools {
         }
     }
 
+    // First byte of a session string. A legacy string always starts with 0x00 (length) or 0xff (null)
+    private static final int SESSION_STRING_MARKER = 0x80;
+
+    /**
+     * Write a string that is expected to be sent often (like command names and mod ids). If
+     * the connection supports it the string is only sent the first time and after that
+     * it is replaced with a small id. Otherwise this is the same as writeString().
+     */
+    public static void writeSessionString(ByteBuf dataOut, String str) {
+        NetworkSession session = NetworkSession.encoding();
+        if (session == null || !session.isCompact()) {
+            writeString(dataOut, str);
+            return;
+        }
+        dataOut.writeByte(SESSION_STRING_MARKER);
+        if (str == null) {
+            writeVarInt(dataOut, 0);
+            return;
+        }
+        int id = session.getStrings().lookupOrDefine(str);
+        if (id > 0) {
+            writeVarInt(dataOut, id << 1);
+        } else {
+            writeVarInt(dataOut, ((-id) << 1) | 1);
+            writeVarString(dataOut, str);
+        }
+    }
+
+    /**
+     * Read a string written with writeSessionString(). A string that is defined in the session
+     * dictionary is replaced with the constant registered in CommandNames (if any) so later
+     * packets return the same instance. Use CommandNames.getId() to dispatch on it
+     */
+    public static String readSessionString(ByteBuf dataIn) {
+        if ((dataIn.getByte(dataIn.readerIndex()) & 0xff) != SESSION_STRING_MARKER) {
+            return readString(dataIn);
+        }
+        dataIn.readByte();
+        int tag = readVarInt(dataIn);
+        if (tag == 0) {
+            return null;
+        }
+        NetworkSession session = NetworkSession.decoding();
+        if (session == null) {
+            throw new RuntimeException("Received session string outside of a network session!");
+        }
+        int id = tag >>> 1;
+        if ((tag & 1) != 0) {
+            String str = CommandNames.canonical(readVarString(dataIn));
+            if (id != SessionDictionary.NO_ID) {
+                session.getStrings().define(id, str);
+            }
+            return str;
+        }
+        return session.getStrings().get(id);
+    }
+
     public static String readStringUTF8(ByteBuf dataIn) {
         int s = dataIn.readInt();
         if (s == -1) {
@@ -141,6 +314,92 @@ public class NetworkTools {
         }
     }
 
+    /// Write an unsigned int using 1 to 5 bytes (7 bits per byte).
+    public static void writeVarInt(ByteBuf dataOut, int value) {
+        while ((value & ~0x7F) != 0) {
+            dataOut.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dataOut.writeByte(value);
+    }
+
+    public static int readVarInt(ByteBuf dataIn) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= 35) {
+                throw new RuntimeException("VarInt too big");
+            }
+            b = dataIn.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /// Write an unsigned long using 1 to 10 bytes (7 bits per byte).
+    public static void writeVarLong(ByteBuf dataOut, long value) {
+        while ((value & ~0x7FL) != 0) {
+            dataOut.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dataOut.writeByte((int) value);
+    }
+
+    public static long readVarLong(ByteBuf dataIn) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= 70) {
+                throw new RuntimeException("VarLong too big");
+            }
+            b = dataIn.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /// Zig-zag encoded varint so that small negative numbers also stay small.
+    public static void writeSignedVarInt(ByteBuf dataOut, int value) {
+        writeVarInt(dataOut, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readSignedVarInt(ByteBuf dataIn) {
+        int v = readVarInt(dataIn);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /// Zig-zag encoded varlong so that small negative numbers also stay small.
+    public static void writeSignedVarLong(ByteBuf dataOut, long value) {
+        writeVarLong(dataOut, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSignedVarLong(ByteBuf dataIn) {
+        long v = readVarLong(dataIn);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /// UTF8 string with a varint length prefix. Null is not supported.
+    public static void writeVarString(ByteBuf dataOut, @Nonnull String str) {
+        byte[] bytes = str.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        writeVarInt(dataOut, bytes.length);
+        dataOut.writeBytes(bytes);
+    }
+
+    @Nonnull
+    public static String readVarString(ByteBuf dataIn) {
+        int s = readVarInt(dataIn);
+        if (s == 0) {
+            return "";
+        }
+        String str = dataIn.toString(dataIn.readerIndex(), s, java.nio.charset.StandardCharsets.UTF_8);
+        dataIn.skipBytes(s);
+        return str;
+    }
+
     public static void writeStringList(ByteBuf dataOut, @Nonnull List<String> list) {
         dataOut.writeInt(list.size());
         list.stream().forEach(s -> writeStringUTF8(dataOut, s));
@@ -246,7 +505,13 @@ public class NetworkTools {
 
     @Nonnull
     public static List<ItemStack> readItemStackList(ByteBuf buf) {
-        int size = buf.readInt();
+        int size;
+        if ((buf.getByte(buf.readerIndex()) & 0xff) == COMPACT_STACK_MARKER) {
+            buf.readByte();
+            size = readVarInt(buf);
+        } else {
+            size = buf.readInt();
+        }
         List<ItemStack> outputs = new ArrayList<>(size);
         for (int i = 0 ; i < size ; i++) {
             outputs.add(NetworkTools.readItemStack(buf));
@@ -255,6 +520,16 @@ public class NetworkTools {
     }
 
     public static void writeItemStackList(ByteBuf buf, @Nonnull List<ItemStack> outputs) {
+        NetworkSession session = NetworkSession.encoding();
+        if (session != null && session.isCompact()) {
+            // The marker is only written once for the whole list
+            buf.writeByte(COMPACT_STACK_MARKER);
+            writeVarInt(buf, outputs.size());
+            for (ItemStack output : outputs) {
+                writeItemStackCompact(buf, output, session);
+            }
+            return;
+        }
         buf.writeInt(outputs.size());
         for (ItemStack output : outputs) {
             NetworkTools.writeItemStack(buf, output);
@@ -0,0 +1,47 @@
+package mcjty.lib.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+
+/**
+ * A number of small messages of the same channel that are sent as one packet. The
+ * contents are already encoded (see SimpleChannel.setBundling()). Every message
+ * is stored as a varint message index, a varint length and the encoded message.
+ */
+public class PacketBundle implements IMessage {
+
+    private ByteBuf payload;
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        payload = Unpooled.copiedBuffer(buf);
+        buf.skipBytes(buf.readableBytes());
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+    }
+
+    public PacketBundle() {
+    }
+
+    public PacketBundle(ByteBuf buf) {
+        fromBytes(buf);
+    }
+
+    public static PacketBundle wrap(ByteBuf payload) {
+        PacketBundle bundle = new PacketBundle();
+        bundle.payload = payload;
+        return bundle;
+    }
+
+    public ByteBuf getPayload() {
+        return payload;
+    }
+
+    public static ByteBuf createPayload() {
+        return Unpooled.buffer(256);
+    }
+}
@@ -23,7 +23,7 @@ public class PacketDataFromServer implements IMessage {
     public void fromBytes(ByteBuf buf) {
         pos = NetworkTools.readPos(buf);
 
-        command = NetworkTools.readString(buf);
+        command = NetworkTools.readSessionString(buf);
 
         boolean resultPresent = buf.readBoolean();
         if (resultPresent) {
@@ -37,7 +37,7 @@ public class PacketDataFromServer implements IMessage {
     public void toBytes(ByteBuf buf) {
         NetworkTools.writePos(buf, pos);
 
-        NetworkTools.writeString(buf, command);
+        NetworkTools.writeSessionString(buf, command);
 
         buf.writeBoolean(result != null);
         if (result != null) {
@@ -0,0 +1,61 @@
+package mcjty.lib.network;
+
+import io.netty.buffer.ByteBuf;
+import mcjty.lib.tileentity.EnergyTelemetry;
+import mcjty.lib.tileentity.GenericEnergyStorageTileEntity;
+import net.minecraft.client.Minecraft;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Energy and energy flow of a tile entity for the player that has its GUI open (see EnergyTelemetry).
+ * Format: position and then the energy and the window totals as varlongs.
+ */
+public class PacketEnergyTelemetry implements IMessage {
+
+    private BlockPos pos;
+    private long[] values;
+
+    public PacketEnergyTelemetry() {
+    }
+
+    public PacketEnergyTelemetry(BlockPos pos, long[] values) {
+        this.pos = pos;
+        this.values = values;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        pos = BlockPos.fromLong(buf.readLong());
+        values = new long[EnergyTelemetry.SYNC_VALUES];
+        for (int i = 0 ; i < values.length ; i++) {
+            values[i] = NetworkTools.readVarLong(buf);
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeLong(pos.toLong());
+        for (long value : values) {
+            NetworkTools.writeVarLong(buf, value);
+        }
+    }
+
+    private void apply() {
+        TileEntity te = Minecraft.getMinecraft().world.getTileEntity(pos);
+        if (te instanceof GenericEnergyStorageTileEntity) {
+            ((GenericEnergyStorageTileEntity) te).syncTelemetry(values);
+        }
+    }
+
+    public static class Handler implements IMessageHandler<PacketEnergyTelemetry, IMessage> {
+        @Override
+        public IMessage onMessage(PacketEnergyTelemetry message, MessageContext ctx) {
+            Minecraft.getMinecraft().addScheduledTask(message::apply);
+            return null;
+        }
+    }
+}
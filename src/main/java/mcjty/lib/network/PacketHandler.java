@@ -1,7 +1,9 @@
 package mcjty.lib.network;
 
+import mcjty.lib.thirteen.MessageBundler;
 import mcjty.lib.thirteen.SimpleChannel;
 import mcjty.lib.typed.TypedMap;
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 
@@ -12,7 +14,7 @@ import java.util.Map;
 public class PacketHandler {
 
     /* Make sure this number is higher than the amount of packets registered by default*/
-    public static final int INTERNAL_PACKETS = 12;
+    public static final int INTERNAL_PACKETS = 16;
 
     public static boolean connected = false;
 
@@ -27,16 +29,43 @@ public class PacketHandler {
 
     public static SimpleNetworkWrapper registerMessages(String modid, String channelName) {
         SimpleNetworkWrapper network = new SimpleNetworkWrapper(channelName) {
+            private final MessageBundler bundler = MessageBundler.get(this);
+
             @Override
             public void sendToServer(IMessage message) {
                 if (message instanceof IClientServerDelayed && !canBeSent(message)) {
                     return;
                 }
-                super.sendToServer(message);
+                // Bundling is opt-in. Don't touch the bundler (and its lock) if it is off
+                if (bundler.isEnabled() && bundler.queueToServer(message)) {
+                    return;
+                }
+                NetworkSession prev = NetworkSession.enter(NetworkSession.getClientSession());
+                try {
+                    super.sendToServer(message);
+                } finally {
+                    NetworkSession.exit(prev);
+                }
+            }
+
+            @Override
+            public void sendTo(IMessage message, EntityPlayerMP player) {
+                if (bundler.isEnabled() && bundler.queueTo(message, player)) {
+                    return;
+                }
+                // Messages are encoded immediately so the codecs can use the session of this player
+                NetworkSession prev = NetworkSession.enter(NetworkSession.get(player));
+                try {
+                    super.sendTo(message, player);
+                } finally {
+                    NetworkSession.exit(prev);
+                }
             }
         };
         registerMessages(network);
+        NetworkMetrics.install(network, channelName);
         modNetworking.put(modid, network);
+        CommandNames.register(modid);
         return network;
     }
 
@@ -61,12 +90,19 @@ public class PacketHandler {
         channel.registerMessageServer(startIndex++, PacketRequestDataFromServer.class, PacketRequestDataFromServer::toBytes, PacketRequestDataFromServer::new, PacketRequestDataFromServer::handle);
         channel.registerMessageServer(startIndex++, PacketDumpItemInfo.class, PacketDumpItemInfo::toBytes, PacketDumpItemInfo::new, PacketDumpItemInfo::handle);
         channel.registerMessageServer(startIndex++, PacketDumpBlockInfo.class, PacketDumpBlockInfo::toBytes, PacketDumpBlockInfo::new, PacketDumpBlockInfo::handle);
+        channel.registerMessageServer(startIndex++, PacketRequestListFromServer.class, PacketRequestListFromServer::toBytes, PacketRequestListFromServer::new, PacketRequestListFromServer::handle);
+        channel.registerMessageServer(startIndex++, PacketListChunkAck.class, PacketListChunkAck::toBytes, PacketListChunkAck::new, PacketListChunkAck::handle);
+        channel.registerMessageServer(startIndex++, PacketSubscribeDataFromServer.class, PacketSubscribeDataFromServer::toBytes, PacketSubscribeDataFromServer::new, PacketSubscribeDataFromServer::handle);
 
         // Client side
         channel.registerMessageClient(startIndex++, PacketSendClientCommand.class, PacketSendClientCommand::toBytes, PacketSendClientCommand::new, PacketSendClientCommand::handle);
         channel.registerMessageClient(startIndex++, PacketDataFromServer.class, PacketDataFromServer::toBytes, PacketDataFromServer::new, PacketDataFromServer::handle);
         channel.registerMessageClient(startIndex++, PacketSendGuiData.class, PacketSendGuiData::toBytes, PacketSendGuiData::new, PacketSendGuiData::handle);
         channel.registerMessageClient(startIndex++, PacketFinalizeLogin.class, PacketFinalizeLogin::toBytes, PacketFinalizeLogin::new, PacketFinalizeLogin::handle);
+        channel.registerMessageClient(startIndex++, PacketListChunkFromServer.class, PacketListChunkFromServer::toBytes, PacketListChunkFromServer::new, PacketListChunkFromServer::handle);
+
+        // Both sides (only used if bundling is enabled with SimpleChannel.setBundling())
+        channel.registerBundle(startIndex++);
     }
 
     // From client side only: send server command
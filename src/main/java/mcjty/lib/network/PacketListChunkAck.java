@@ -0,0 +1,46 @@
+package mcjty.lib.network;
+
+import io.netty.buffer.ByteBuf;
+import mcjty.lib.thirteen.Context;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+
+import java.util.function.Supplier;
+
+/**
+ * Sent by the client when it has handled a chunk of a streamed list so that the server
+ * can send more (see ListStreams). A negative sequence number cancels the stream.
+ */
+public class PacketListChunkAck implements IMessage {
+    private int streamId;
+    private int seq;
+
+    public PacketListChunkAck() {
+    }
+
+    public PacketListChunkAck(ByteBuf buf) {
+        fromBytes(buf);
+    }
+
+    public PacketListChunkAck(int streamId, int seq) {
+        this.streamId = streamId;
+        this.seq = seq;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        streamId = buf.readInt();
+        seq = buf.readInt();
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(streamId);
+        buf.writeInt(seq);
+    }
+
+    public void handle(Supplier<Context> supplier) {
+        Context ctx = supplier.get();
+        ctx.enqueueWork(() -> ListStreams.acknowledge(ctx.getSender(), streamId, seq));
+        ctx.setPacketHandled(true);
+    }
+}
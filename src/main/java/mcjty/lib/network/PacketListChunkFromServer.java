@@ -0,0 +1,90 @@
+package mcjty.lib.network;
+
+import io.netty.buffer.ByteBuf;
+import mcjty.lib.thirteen.Context;
+import mcjty.lib.typed.TypedMap;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+
+import java.util.function.Supplier;
+
+/**
+ * One chunk of a list that is streamed to the client (see ListStreams)
+ */
+public class PacketListChunkFromServer implements IMessage {
+    private int streamId;
+    private int seq;
+    private int offset;
+    private int total;
+    private int typeIndex;
+    private TypedMap chunk;
+
+    public PacketListChunkFromServer() {
+    }
+
+    public PacketListChunkFromServer(ByteBuf buf) {
+        fromBytes(buf);
+    }
+
+    public PacketListChunkFromServer(int streamId, int seq, int offset, int total, int typeIndex, TypedMap chunk) {
+        this.streamId = streamId;
+        this.seq = seq;
+        this.offset = offset;
+        this.total = total;
+        this.typeIndex = typeIndex;
+        this.chunk = chunk;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        streamId = buf.readInt();
+        seq = NetworkTools.readVarInt(buf);
+        offset = NetworkTools.readVarInt(buf);
+        total = NetworkTools.readVarInt(buf);
+        typeIndex = buf.readByte();
+        chunk = TypedMapTools.readArguments(buf);
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(streamId);
+        NetworkTools.writeVarInt(buf, seq);
+        NetworkTools.writeVarInt(buf, offset);
+        NetworkTools.writeVarInt(buf, total);
+        buf.writeByte(typeIndex);
+        TypedMapTools.writeArguments(buf, chunk);
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public int getSeq() {
+        return seq;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getTypeIndex() {
+        return typeIndex;
+    }
+
+    public TypedMap getChunk() {
+        return chunk;
+    }
+
+    public boolean isLast() {
+        return offset + chunk.get(ListStreams.getChunkKey(typeIndex)).size() >= total;
+    }
+
+    public void handle(Supplier<Context> supplier) {
+        Context ctx = supplier.get();
+        ctx.enqueueWork(() -> ListStreams.receiveChunk(this));
+        ctx.setPacketHandled(true);
+    }
+}
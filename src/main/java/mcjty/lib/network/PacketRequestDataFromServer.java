@@ -4,9 +4,9 @@ import io.netty.buffer.ByteBuf;
 import mcjty.lib.thirteen.Context;
 import mcjty.lib.typed.TypedMap;
 import mcjty.lib.varia.Logging;
-import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 
@@ -33,17 +33,17 @@ public class PacketRequestDataFromServer implements IMessage {
     @Override
     public void fromBytes(ByteBuf buf) {
         pos = NetworkTools.readPos(buf);
-        command = NetworkTools.readString(buf);
+        command = NetworkTools.readSessionString(buf);
         params = TypedMapTools.readArguments(buf);
-        modid = NetworkTools.readString(buf);
+        modid = NetworkTools.readSessionString(buf);
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
         NetworkTools.writePos(buf, pos);
-        NetworkTools.writeString(buf, command);
+        NetworkTools.writeSessionString(buf, command);
         TypedMapTools.writeArguments(buf, params);
-        NetworkTools.writeString(buf, modid);
+        NetworkTools.writeSessionString(buf, modid);
     }
 
     public PacketRequestDataFromServer(String modid, BlockPos pos, String command, TypedMap params) {
@@ -53,29 +53,44 @@ public class PacketRequestDataFromServer implements IMessage {
         this.modid = modid;
     }
 
+    public String getCommand() {
+        return command;
+    }
+
     public void handle(Supplier<Context> supplier) {
         Context ctx = supplier.get();
+        if (!CommandGuard.acceptTileCommand(ctx.getSender(), pos, null, command)) {
+            ctx.setPacketHandled(true);
+            return;
+        }
+        SimpleNetworkWrapper network = PacketHandler.modNetworking.get(modid);
+        if (network == null) {
+            CommandGuard.reject(ctx.getSender(), "unknown mod '" + modid + "'");
+            ctx.setPacketHandled(true);
+            return;
+        }
         ctx.enqueueWork(() -> {
-            TileEntity te = ctx.getSender().getEntityWorld().getTileEntity(pos);
+            World world = ctx.getSender().getEntityWorld();
+            if (!world.isBlockLoaded(pos)) {
+                return;
+            }
+            TileEntity te = world.getTileEntity(pos);
             if(!(te instanceof ICommandHandler)) {
                 Logging.log("createStartScanPacket: TileEntity is not a CommandHandler!");
                 return;
             }
+            if (!CommandGuard.acceptParams(ctx.getSender(), te, command, params)) {
+                return;
+            }
             ICommandHandler commandHandler = (ICommandHandler) te;
-            TypedMap result = commandHandler.executeWithResult(command, params);
+            TypedMap result = DataRequestCache.executeWithResult(world, pos, commandHandler, command, params);
             if (result == null) {
                 Logging.log("Command " + command + " was not handled!");
                 return;
             }
 
-            sendReplyToClient(this, result, ctx.getSender());
+            network.sendTo(new PacketDataFromServer(pos, command, result), ctx.getSender());
         });
         ctx.setPacketHandled(true);
     }
-
-    private void sendReplyToClient(PacketRequestDataFromServer message, TypedMap result, EntityPlayerMP player) {
-        SimpleNetworkWrapper wrapper = PacketHandler.modNetworking.get(message.modid);
-        PacketDataFromServer msg = new PacketDataFromServer(message.pos, message.command, result);
-        wrapper.sendTo(msg, player);
-    }
 }
@@ -0,0 +1,45 @@
+package mcjty.lib.network;
+
+import io.netty.buffer.ByteBuf;
+import mcjty.lib.container.GenericContainer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Sent by the client when it received a GUI data delta (PacketSendGuiData) that it
+ * can't apply. The server then sends the complete data again.
+ */
+public class PacketRequestGuiResync implements IMessage {
+
+    public static final String COMMAND = "guiResync";
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+    }
+
+    public PacketRequestGuiResync() {
+    }
+
+    public static class Handler implements IMessageHandler<PacketRequestGuiResync, IMessage> {
+        @Override
+        public IMessage onMessage(PacketRequestGuiResync message, MessageContext ctx) {
+            EntityPlayerMP player = ctx.getServerHandler().player;
+            if (!CommandGuard.acceptLibraryCommand(player, COMMAND)) {
+                return null;
+            }
+            FMLCommonHandler.instance().getWorldThread(ctx.netHandler).addScheduledTask(() -> {
+                if (player.openContainer instanceof GenericContainer) {
+                    ((GenericContainer) player.openContainer).resyncGuiData(player);
+                }
+            });
+            return null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package mcjty.lib.network;
+
+import io.netty.buffer.ByteBuf;
+import mcjty.lib.debugtools.TileEntityProfiler;
+import mcjty.lib.thirteen.Context;
+import mcjty.lib.typed.TypedMap;
+import mcjty.lib.varia.Logging;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * This packet is sent by ListStreams.requestList() to ask a tile entity that implements
+ * ICommandHandler for a list (executeWithResultList()). The result is streamed back in chunks.
+ */
+public class PacketRequestListFromServer implements IMessage {
+    private BlockPos pos;
+    private String command;
+    private TypedMap params;
+    private String modid;
+    private int typeIndex;
+    private int streamId;
+
+    public PacketRequestListFromServer() {
+    }
+
+    public PacketRequestListFromServer(ByteBuf buf) {
+        fromBytes(buf);
+    }
+
+    public PacketRequestListFromServer(String modid, BlockPos pos, String command, TypedMap params, int typeIndex, int streamId) {
+        this.pos = pos;
+        this.command = command;
+        this.params = params;
+        this.modid = modid;
+        this.typeIndex = typeIndex;
+        this.streamId = streamId;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        pos = NetworkTools.readPos(buf);
+        command = NetworkTools.readSessionString(buf);
+        params = TypedMapTools.readArguments(buf);
+        modid = NetworkTools.readSessionString(buf);
+        typeIndex = buf.readByte();
+        streamId = buf.readInt();
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        NetworkTools.writePos(buf, pos);
+        NetworkTools.writeSessionString(buf, command);
+        TypedMapTools.writeArguments(buf, params);
+        NetworkTools.writeSessionString(buf, modid);
+        buf.writeByte(typeIndex);
+        buf.writeInt(streamId);
+    }
+
+    public void handle(Supplier<Context> supplier) {
+        Context ctx = supplier.get();
+        if (!CommandGuard.acceptTileCommand(ctx.getSender(), pos, null, command)) {
+            ctx.setPacketHandled(true);
+            return;
+        }
+        SimpleNetworkWrapper network = PacketHandler.modNetworking.get(modid);
+        if (network == null || typeIndex < 0 || typeIndex >= ListStreams.getTypeCount()) {
+            CommandGuard.reject(ctx.getSender(), "invalid list request for mod '" + modid + "'");
+            ctx.setPacketHandled(true);
+            return;
+        }
+        ctx.enqueueWork(() -> {
+            EntityPlayerMP player = ctx.getSender();
+            TileEntity te = player.getEntityWorld().isBlockLoaded(pos) ? player.getEntityWorld().getTileEntity(pos) : null;
+            if (!(te instanceof ICommandHandler)) {
+                Logging.log("requestList: TileEntity is not a CommandHandler!");
+                ListStreams.startStream(player, network, streamId, typeIndex, Collections.emptyList());
+                return;
+            }
+            if (!CommandGuard.acceptParams(player, te, command, params)) {
+                ListStreams.startStream(player, network, streamId, typeIndex, Collections.emptyList());
+                return;
+            }
+            ICommandHandler commandHandler = (ICommandHandler) te;
+            long start = TileEntityProfiler.start();
+            List<?> list = commandHandler.executeWithResultList(command, params, ListStreams.getElementType(typeIndex));
+            TileEntityProfiler.command(te, start);
+            ListStreams.startStream(player, network, streamId, typeIndex, list);
+        });
+        ctx.setPacketHandled(true);
+    }
+}
@@ -29,15 +29,15 @@ public class PacketSendClientCommand implements IMessage {
 
     @Override
     public void fromBytes(ByteBuf buf) {
-        modid = NetworkTools.readString(buf);
-        command = NetworkTools.readString(buf);
+        modid = NetworkTools.readSessionString(buf);
+        command = NetworkTools.readSessionString(buf);
         arguments = TypedMapTools.readArguments(buf);
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
-        NetworkTools.writeString(buf, modid);
-        NetworkTools.writeString(buf, command);
+        NetworkTools.writeSessionString(buf, modid);
+        NetworkTools.writeSessionString(buf, command);
         TypedMapTools.writeArguments(buf, arguments);
     }
 
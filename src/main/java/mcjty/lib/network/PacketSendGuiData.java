@@ -10,8 +10,13 @@ import net.minecraft.world.World;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.HashMap;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -23,20 +28,24 @@ public class PacketSendGuiData implements IMessage {
     private int dimId;
     private BlockPos pos;
     private Object[] data;
+    // Null for a complete packet. Otherwise only the set indices are present in 'data'
+    private BitSet changed = null;
 
     private static class Entry<T> {
+        private final int id;
         private final Class<T> clazz;
         private final Function<ByteBuf, ? extends T> func;
         private final Consumer<Pair<ByteBuf, ? extends T>> consumer;
 
-        private Entry(Class<T> clazz, Function<ByteBuf, ? extends T> func, Consumer<Pair<ByteBuf, ? extends T>> consumer) {
+        private Entry(int id, Class<T> clazz, Function<ByteBuf, ? extends T> func, Consumer<Pair<ByteBuf, ? extends T>> consumer) {
+            this.id = id;
             this.clazz = clazz;
             this.func = func;
             this.consumer = consumer;
         }
 
-        public static <T> Entry<T> of(Class<T> clazz, Function<ByteBuf, ? extends T> func, Consumer<Pair<ByteBuf, ? extends T>> consumer) {
-            return new Entry<>(clazz, func, consumer);
+        public static <T> Entry<T> of(int id, Class<T> clazz, Function<ByteBuf, ? extends T> func, Consumer<Pair<ByteBuf, ? extends T>> consumer) {
+            return new Entry<>(id, clazz, func, consumer);
         }
 
         public boolean match(Object o) {
@@ -49,27 +58,72 @@ public class PacketSendGuiData implements IMessage {
     }
 
 
-    private static final Map<Integer,Entry<?>> CLASS_MAP = new HashMap<>();
+    private static final List<Entry<?>> ENTRIES = new ArrayList<>();
+    // Class objects use identity for equals/hashCode so this is an identity lookup
+    private static final Map<Class<?>, Entry<?>> CLASS_MAP = new ConcurrentHashMap<>();
     static {
-        int id = 0;
-        CLASS_MAP.put(id++, Entry.of(Integer.class, ByteBuf::readInt, p -> p.getLeft().writeInt(p.getRight())));
-        CLASS_MAP.put(id++, Entry.of(String.class, NetworkTools::readString, p -> NetworkTools.writeString(p.getLeft(), p.getRight())));
-        CLASS_MAP.put(id++, Entry.of(Float.class, ByteBuf::readFloat, p -> p.getLeft().writeFloat(p.getRight())));
-        CLASS_MAP.put(id++, Entry.of(Boolean.class, ByteBuf::readBoolean, p -> p.getLeft().writeBoolean(p.getRight())));
-        CLASS_MAP.put(id++, Entry.of(Byte.class, ByteBuf::readByte, p -> p.getLeft().writeByte(p.getRight())));
-        CLASS_MAP.put(id++, Entry.of(Long.class, ByteBuf::readLong, p -> p.getLeft().writeLong(p.getRight())));
-        CLASS_MAP.put(id++, Entry.of(BlockPos.class, NetworkTools::readPos, p -> NetworkTools.writePos(p.getLeft(), p.getRight())));
+        register(Integer.class, ByteBuf::readInt, p -> p.getLeft().writeInt(p.getRight()));
+        register(String.class, NetworkTools::readString, p -> NetworkTools.writeString(p.getLeft(), p.getRight()));
+        register(Float.class, ByteBuf::readFloat, p -> p.getLeft().writeFloat(p.getRight()));
+        register(Boolean.class, ByteBuf::readBoolean, p -> p.getLeft().writeBoolean(p.getRight()));
+        register(Byte.class, ByteBuf::readByte, p -> p.getLeft().writeByte(p.getRight()));
+        register(Long.class, ByteBuf::readLong, p -> p.getLeft().writeLong(p.getRight()));
+        register(BlockPos.class, NetworkTools::readPos, p -> NetworkTools.writePos(p.getLeft(), p.getRight()));
     }
 
+    private static <T> void register(Class<T> clazz, Function<ByteBuf, ? extends T> func, Consumer<Pair<ByteBuf, ? extends T>> consumer) {
+        Entry<T> entry = Entry.of(ENTRIES.size(), clazz, func, consumer);
+        ENTRIES.add(entry);
+        CLASS_MAP.put(clazz, entry);
+    }
+
+    // Subclasses (like BlockPos.MutableBlockPos) are resolved once and then cached
+    private static Entry<?> findEntry(Object o) {
+        if (o == null) {
+            throw new RuntimeException("Unsupported type in getDataForGUI!");
+        }
+        Entry<?> entry = CLASS_MAP.get(o.getClass());
+        if (entry == null) {
+            for (Entry<?> e : ENTRIES) {
+                if (e.match(o)) {
+                    CLASS_MAP.put(o.getClass(), e);
+                    return e;
+                }
+            }
+            throw new RuntimeException("Unsupported type in getDataForGUI!");
+        }
+        return entry;
+    }
+
+    // Client side: the last complete data that was received. Deltas are applied on this
+    private static int clientDimId;
+    private static BlockPos clientPos = null;
+    private static Object[] clientData = null;
+    // Client side: set when a resync was requested and no complete data arrived since
+    private static boolean resyncRequested = false;
+
     @Override
     public void fromBytes(ByteBuf buf) {
         dimId = buf.readInt();
         pos = NetworkTools.readPos(buf);
         int size = buf.readShort();
         data = new Object[size];
+        changed = null;
+        if (buf.readBoolean()) {
+            changed = new BitSet(size);
+            byte[] mask = new byte[(size + 7) / 8];
+            buf.readBytes(mask);
+            for (int i = 0 ; i < size ; i++) {
+                if ((mask[i >> 3] & (1 << (i & 7))) != 0) {
+                    changed.set(i);
+                }
+            }
+        }
         for (int i = 0 ; i < size ; i++) {
-            int type = buf.readByte();
-            data[i] = CLASS_MAP.get(type).func.apply(buf);
+            if (changed == null || changed.get(i)) {
+                int type = buf.readByte();
+                data[i] = ENTRIES.get(type).func.apply(buf);
+            }
         }
     }
 
@@ -82,22 +136,22 @@ public class PacketSendGuiData implements IMessage {
         buf.writeInt(dimId);
         NetworkTools.writePos(buf, pos);
         buf.writeShort(data.length);
-        for (Object o : data) {
-            boolean ok = false;
-            for (Map.Entry<Integer, Entry<?>> entry : CLASS_MAP.entrySet()) {
-                Entry<?> triple = entry.getValue();
-                if (triple.match(o)) {
-                    buf.writeByte(entry.getKey());
-                    acceptCasted(triple, buf, o);
-                    ok = true;
-                    break;
-                }
+        buf.writeBoolean(changed != null);
+        if (changed != null) {
+            byte[] mask = new byte[(data.length + 7) / 8];
+            for (int i = changed.nextSetBit(0) ; i >= 0 ; i = changed.nextSetBit(i+1)) {
+                mask[i >> 3] |= 1 << (i & 7);
             }
-            if (!ok) {
-                throw new RuntimeException("Unsupported type in getDataForGUI!");
+            buf.writeBytes(mask);
+        }
+        for (int i = 0 ; i < data.length ; i++) {
+            if (changed == null || changed.get(i)) {
+                Object o = data[i];
+                Entry<?> triple = findEntry(o);
+                buf.writeByte(triple.id);
+                acceptCasted(triple, buf, o);
             }
         }
-
     }
 
     public PacketSendGuiData() {
@@ -108,26 +162,96 @@ public class PacketSendGuiData implements IMessage {
     }
 
     public PacketSendGuiData(World world, BlockPos pos) {
+        this(world, pos, getDataForGUI(world, pos), null);
+    }
+
+    /**
+     * Create a packet that only contains the elements of 'data' that differ from 'previous'
+     * (the data that was last sent to this player). If 'previous' is null or has
+     * a different size then everything is sent.
+     */
+    public PacketSendGuiData(World world, BlockPos pos, Object[] data, @Nullable Object[] previous) {
         this.dimId = world.provider.getDimension();
         this.pos = pos;
+        this.data = data;
+        if (previous != null && previous.length == data.length) {
+            changed = new BitSet(data.length);
+            for (int i = 0 ; i < data.length ; i++) {
+                if (!Objects.equals(data[i], previous[i])) {
+                    changed.set(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy of the data to compare later packets with. All supported types are immutable
+     * except for BlockPos (MutableBlockPos) which is copied
+     */
+    public static Object[] snapshot(Object[] data) {
+        Object[] copy = data.clone();
+        for (int i = 0 ; i < copy.length ; i++) {
+            if (copy[i] instanceof BlockPos && copy[i].getClass() != BlockPos.class) {
+                copy[i] = ((BlockPos) copy[i]).toImmutable();
+            }
+        }
+        return copy;
+    }
+
+    public static Object[] getDataForGUI(World world, BlockPos pos) {
         TileEntity te = world.getTileEntity(pos);
         if (te instanceof GenericTileEntity) {
             GenericTileEntity genericTileEntity = (GenericTileEntity) te;
-            data = genericTileEntity.getDataForGUI();
+            return genericTileEntity.getDataForGUI();
         } else {
-            data = new Object[0];
+            return new Object[0];
         }
     }
 
+    /**
+     * True if this is a delta packet without any changes
+     */
+    public boolean isEmpty() {
+        return changed != null && changed.isEmpty();
+    }
+
+    // Merge a delta with the last complete data. Returns null if there is nothing to merge with
+    @Nullable
+    private Object[] mergeClientData() {
+        if (changed == null) {
+            resyncRequested = false;
+            clientDimId = dimId;
+            clientPos = pos;
+            clientData = data.clone();
+            return data;
+        }
+        if (clientData == null || clientDimId != dimId || !pos.equals(clientPos) || clientData.length != data.length) {
+            return null;
+        }
+        for (int i = changed.nextSetBit(0) ; i >= 0 ; i = changed.nextSetBit(i+1)) {
+            clientData[i] = data[i];
+        }
+        return clientData.clone();
+    }
+
     public void handle(Supplier<Context> supplier) {
         Context ctx = supplier.get();
         ctx.enqueueWork(() -> {
+            Object[] merged = mergeClientData();
+            if (merged == null) {
+                // The deltas are useless until the server sends the complete data again
+                if (!resyncRequested) {
+                    resyncRequested = true;
+                    McJtyLib.networkHandler.sendToServer(new PacketRequestGuiResync());
+                }
+                return;
+            }
             World world = McJtyLib.proxy.getClientWorld();
             if (world.provider.getDimension() == dimId) {
                 TileEntity te = world.getTileEntity(pos);
                 if (te instanceof GenericTileEntity) {
                     GenericTileEntity tileEntity = (GenericTileEntity) te;
-                    tileEntity.syncDataForGUI(data);
+                    tileEntity.syncDataForGUI(merged);
                 }
             }
         });
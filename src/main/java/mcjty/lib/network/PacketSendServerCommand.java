@@ -18,15 +18,15 @@ public class PacketSendServerCommand implements IMessage {
 
     @Override
     public void fromBytes(ByteBuf buf) {
-        modid = NetworkTools.readString(buf);
-        command = NetworkTools.readString(buf);
+        modid = NetworkTools.readSessionString(buf);
+        command = NetworkTools.readSessionString(buf);
         arguments = TypedMapTools.readArguments(buf);
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
-        NetworkTools.writeString(buf, modid);
-        NetworkTools.writeString(buf, command);
+        NetworkTools.writeSessionString(buf, modid);
+        NetworkTools.writeSessionString(buf, command);
         TypedMapTools.writeArguments(buf, arguments);
     }
 
@@ -43,8 +43,20 @@ public class PacketSendServerCommand implements IMessage {
         this.arguments = arguments;
     }
 
+    public String getModid() {
+        return modid;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
     public void handle(Supplier<Context> supplier) {
         Context ctx = supplier.get();
+        if (!CommandGuard.acceptServerCommand(ctx.getSender(), modid, command)) {
+            ctx.setPacketHandled(true);
+            return;
+        }
         ctx.enqueueWork(() -> {
             boolean result = McJtyLib.handleCommand(modid, command, ctx.getSender(), arguments);
             if (!result) {
@@ -1,6 +1,7 @@
 package mcjty.lib.network;
 
 import io.netty.buffer.ByteBuf;
+import mcjty.lib.debugtools.TileEntityProfiler;
 import mcjty.lib.thirteen.Context;
 import mcjty.lib.typed.TypedMap;
 import mcjty.lib.varia.Logging;
@@ -49,7 +50,7 @@ public class PacketServerCommandTyped implements IMessage {
     @Override
     public void fromBytes(ByteBuf buf) {
         pos = NetworkTools.readPos(buf);
-        command = NetworkTools.readString(buf);
+        command = NetworkTools.readSessionString(buf);
         params = TypedMapTools.readArguments(buf);
         if (buf.readBoolean()) {
             dimensionId = buf.readInt();
@@ -61,7 +62,7 @@ public class PacketServerCommandTyped implements IMessage {
     @Override
     public void toBytes(ByteBuf buf) {
         NetworkTools.writePos(buf, pos);
-        NetworkTools.writeString(buf, command);
+        NetworkTools.writeSessionString(buf, command);
         TypedMapTools.writeArguments(buf, params);
         if (dimensionId != null) {
             buf.writeBoolean(true);
@@ -71,8 +72,16 @@ public class PacketServerCommandTyped implements IMessage {
         }
     }
 
+    public String getCommand() {
+        return command;
+    }
+
     public void handle(Supplier<Context> supplier) {
         Context ctx = supplier.get();
+        if (!CommandGuard.acceptTileCommand(ctx.getSender(), pos, dimensionId, command)) {
+            ctx.setPacketHandled(true);
+            return;
+        }
         ctx.enqueueWork(() -> {
             EntityPlayerMP playerEntity = ctx.getSender();
             World world;
@@ -81,7 +90,7 @@ public class PacketServerCommandTyped implements IMessage {
             } else {
                 world = DimensionManager.getWorld(dimensionId);
             }
-            if (world == null) {
+            if (world == null || !world.isBlockLoaded(pos)) {
                 return;
             }
             TileEntity te = world.getTileEntity(pos);
@@ -89,10 +98,15 @@ public class PacketServerCommandTyped implements IMessage {
                 Logging.log("createStartScanPacket: TileEntity is not a CommandHandler!");
                 return;
             }
+            if (!CommandGuard.acceptParams(playerEntity, te, command, params)) {
+                return;
+            }
             ICommandHandler commandHandler = (ICommandHandler) te;
+            long start = TileEntityProfiler.start();
             if (!commandHandler.execute(playerEntity, command, params)) {
                 Logging.log("Command " + command + " was not handled!");
             }
+            TileEntityProfiler.command(te, start);
         });
         ctx.setPacketHandled(true);
     }
@@ -0,0 +1,57 @@
+package mcjty.lib.network;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Exchange the supported codec version for the connection. The server sends this
+ * to the client on login and the client answers with its own version. Until this
+ * has arrived both sides keep using the legacy (uncompressed) formats.
+ */
+public class PacketSessionHandshake implements IMessage {
+
+    private int version;
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        version = buf.readInt();
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(version);
+    }
+
+    public PacketSessionHandshake() {
+    }
+
+    public PacketSessionHandshake(int version) {
+        this.version = version;
+    }
+
+    // This is called on the netty thread so the decoding session is the one of the connection
+    private static void updateSession(PacketSessionHandshake message) {
+        NetworkSession session = NetworkSession.decoding();
+        if (session != null) {
+            session.setPeerCodecVersion(message.version);
+        }
+    }
+
+    public static class ClientHandler implements IMessageHandler<PacketSessionHandshake, IMessage> {
+        @Override
+        public IMessage onMessage(PacketSessionHandshake message, MessageContext ctx) {
+            updateSession(message);
+            return new PacketSessionHandshake(NetworkSession.CODEC_VERSION);
+        }
+    }
+
+    public static class ServerHandler implements IMessageHandler<PacketSessionHandshake, IMessage> {
+        @Override
+        public IMessage onMessage(PacketSessionHandshake message, MessageContext ctx) {
+            updateSession(message);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package mcjty.lib.network;
+
+import io.netty.buffer.ByteBuf;
+import mcjty.lib.thirteen.Context;
+import mcjty.lib.typed.TypedMap;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+
+import java.util.function.Supplier;
+
+/**
+ * Subscribe to (or unsubscribe from) the result of a command on a tile entity that
+ * implements ICommandHandler. The server will send a PacketDataFromServer whenever the
+ * result changes (see DataRequestCache).
+ */
+public class PacketSubscribeDataFromServer implements IMessage {
+    private BlockPos pos;
+    private String command;
+    private TypedMap params;
+    private String modid;
+    private boolean subscribe;
+
+    public PacketSubscribeDataFromServer() {
+    }
+
+    public PacketSubscribeDataFromServer(ByteBuf buf) {
+        fromBytes(buf);
+    }
+
+    public PacketSubscribeDataFromServer(String modid, BlockPos pos, String command, TypedMap params, boolean subscribe) {
+        this.pos = pos;
+        this.command = command;
+        this.params = params;
+        this.modid = modid;
+        this.subscribe = subscribe;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        pos = NetworkTools.readPos(buf);
+        command = NetworkTools.readSessionString(buf);
+        params = TypedMapTools.readArguments(buf);
+        modid = NetworkTools.readSessionString(buf);
+        subscribe = buf.readBoolean();
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        NetworkTools.writePos(buf, pos);
+        NetworkTools.writeSessionString(buf, command);
+        TypedMapTools.writeArguments(buf, params);
+        NetworkTools.writeSessionString(buf, modid);
+        buf.writeBoolean(subscribe);
+    }
+
+    public void handle(Supplier<Context> supplier) {
+        Context ctx = supplier.get();
+        if (!CommandGuard.acceptTileCommand(ctx.getSender(), pos, null, command)) {
+            ctx.setPacketHandled(true);
+            return;
+        }
+        SimpleNetworkWrapper network = PacketHandler.modNetworking.get(modid);
+        if (network == null) {
+            CommandGuard.reject(ctx.getSender(), "unknown mod '" + modid + "'");
+            ctx.setPacketHandled(true);
+            return;
+        }
+        ctx.enqueueWork(() -> {
+            EntityPlayerMP player = ctx.getSender();
+            if (subscribe) {
+                TileEntity te = player.getEntityWorld().isBlockLoaded(pos) ? player.getEntityWorld().getTileEntity(pos) : null;
+                if (te == null || !CommandGuard.acceptParams(player, te, command, params)) {
+                    return;
+                }
+                DataRequestCache.subscribe(player, network, pos, command, params);
+            } else {
+                DataRequestCache.unsubscribe(player, pos, command, params);
+            }
+        });
+        ctx.setPacketHandled(true);
+    }
+}
@@ -0,0 +1,164 @@
+package mcjty.lib.network;
+
+import io.netty.buffer.ByteBuf;
+import mcjty.lib.bindings.ValueHolder;
+import mcjty.lib.tileentity.GenericTileEntity;
+import mcjty.lib.tileentity.SyncedFields;
+import mcjty.lib.typed.Type;
+import mcjty.lib.varia.Logging;
+import net.minecraft.client.Minecraft;
+import net.minecraft.item.ItemStack;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * The fields of a tile entity that changed (see SyncedFields). Every value starts with a
+ * type byte so that the values can be decoded on the netty thread (in the network session,
+ * item stacks can use the stack dictionary) without knowing the class of the tile entity.
+ * Format: position, varint bitmask of the changed fields and then the values in order.
+ */
+public class PacketSyncFields implements IMessage {
+
+    private BlockPos pos;
+    private long dirty;
+    private Object[] values;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_INTEGER = 1;
+    private static final int TYPE_LONG = 2;
+    private static final int TYPE_BOOLEAN = 3;
+    private static final int TYPE_DOUBLE = 4;
+    private static final int TYPE_STRING = 5;
+    private static final int TYPE_BLOCKPOS = 6;
+    private static final int TYPE_ITEMSTACK = 7;
+
+    public PacketSyncFields() {
+    }
+
+    public PacketSyncFields(GenericTileEntity te, SyncedFields<?> fields, long dirty) {
+        this.pos = te.getPos();
+        this.dirty = dirty;
+        this.values = new Object[Long.bitCount(dirty)];
+        int idx = 0;
+        for (int i = 0 ; i < fields.size() ; i++) {
+            if ((dirty & (1L << i)) != 0) {
+                ValueHolder<GenericTileEntity, ?> field = (ValueHolder<GenericTileEntity, ?>) fields.getField(i);
+                Object value = field.getter().apply(te);
+                if (value == null && field.getKey().getType() == Type.ITEMSTACK) {
+                    value = ItemStack.EMPTY;
+                }
+                values[idx++] = value;
+            }
+        }
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        pos = BlockPos.fromLong(buf.readLong());
+        dirty = NetworkTools.readVarLong(buf);
+        values = new Object[Long.bitCount(dirty)];
+        for (int i = 0 ; i < values.length ; i++) {
+            values[i] = readValue(buf);
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeLong(pos.toLong());
+        NetworkTools.writeVarLong(buf, dirty);
+        for (Object value : values) {
+            writeValue(buf, value);
+        }
+    }
+
+    public static boolean isSupported(Type<?> type) {
+        return type == Type.INTEGER || type == Type.LONG || type == Type.BOOLEAN || type == Type.DOUBLE
+                || type == Type.STRING || type == Type.BLOCKPOS || type == Type.ITEMSTACK;
+    }
+
+    private static void writeValue(ByteBuf buf, Object value) {
+        if (value == null) {
+            buf.writeByte(TYPE_NULL);
+        } else if (value instanceof Integer) {
+            buf.writeByte(TYPE_INTEGER);
+            NetworkTools.writeSignedVarInt(buf, (Integer) value);
+        } else if (value instanceof Long) {
+            buf.writeByte(TYPE_LONG);
+            NetworkTools.writeSignedVarLong(buf, (Long) value);
+        } else if (value instanceof Boolean) {
+            buf.writeByte(TYPE_BOOLEAN);
+            buf.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            buf.writeByte(TYPE_DOUBLE);
+            buf.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            buf.writeByte(TYPE_STRING);
+            NetworkTools.writeVarString(buf, (String) value);
+        } else if (value instanceof BlockPos) {
+            buf.writeByte(TYPE_BLOCKPOS);
+            buf.writeLong(((BlockPos) value).toLong());
+        } else {
+            buf.writeByte(TYPE_ITEMSTACK);
+            NetworkTools.writeItemStack(buf, (ItemStack) value);
+        }
+    }
+
+    private static Object readValue(ByteBuf buf) {
+        int type = buf.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_INTEGER:
+                return NetworkTools.readSignedVarInt(buf);
+            case TYPE_LONG:
+                return NetworkTools.readSignedVarLong(buf);
+            case TYPE_BOOLEAN:
+                return buf.readBoolean();
+            case TYPE_DOUBLE:
+                return buf.readDouble();
+            case TYPE_STRING:
+                return NetworkTools.readVarString(buf);
+            case TYPE_BLOCKPOS:
+                return BlockPos.fromLong(buf.readLong());
+            case TYPE_ITEMSTACK:
+                return NetworkTools.readItemStack(buf);
+            default:
+                throw new IllegalStateException("Unknown synced field type " + type + "!");
+        }
+    }
+
+    private void apply() {
+        TileEntity te = Minecraft.getMinecraft().world.getTileEntity(pos);
+        if (!(te instanceof GenericTileEntity)) {
+            return;
+        }
+        SyncedFields<GenericTileEntity> fields = SyncedFields.get(((GenericTileEntity) te).getClass());
+        if (64 - Long.numberOfLeadingZeros(dirty) > fields.size()) {
+            Logging.logError("Synced fields of " + te.getClass().getName() + " don't match!");
+            return;
+        }
+        int idx = 0;
+        for (int i = 0 ; i < fields.size() ; i++) {
+            if ((dirty & (1L << i)) != 0) {
+                ValueHolder<GenericTileEntity, Object> field = (ValueHolder<GenericTileEntity, Object>) fields.getField(i);
+                Object value = values[idx++];
+                if (value != null && !field.getKey().getType().isA(value)) {
+                    Logging.logError("Synced field '" + field.getKey().getName() + "' of " + te.getClass().getName() + " doesn't match!");
+                    continue;
+                }
+                field.setter().accept((GenericTileEntity) te, value);
+            }
+        }
+    }
+
+    public static class Handler implements IMessageHandler<PacketSyncFields, IMessage> {
+        @Override
+        public IMessage onMessage(PacketSyncFields message, MessageContext ctx) {
+            Minecraft.getMinecraft().addScheduledTask(message::apply);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package mcjty.lib.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pair of id tables that live for the duration of a single connection. The outgoing
+ * table assigns an id to every value the first time it is sent. The incoming table remembers
+ * the values that were defined by the other side. Id 0 is reserved for values that are sent
+ * inline without being remembered (used when the table is full).
+ */
+public class SessionDictionary<T> {
+
+    public static final int NO_ID = 0;
+
+    private final int maxSize;
+
+    private final Map<T, Integer> outgoing = new HashMap<>();
+    private final List<T> incoming = new ArrayList<>();
+
+    public SessionDictionary(int maxSize) {
+        this.maxSize = maxSize;
+        incoming.add(null);     // Id 0 is never used
+    }
+
+    /**
+     * Return the id of this value if it was already sent before or else a negative
+     * number which (when negated) is the new id that the caller must define inline.
+     * If the table is full NO_ID is returned and the value must be sent inline.
+     */
+    public synchronized int lookupOrDefine(T value) {
+        Integer id = outgoing.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (outgoing.size() >= maxSize) {
+            return NO_ID;
+        }
+        int newId = outgoing.size() + 1;
+        outgoing.put(value, newId);
+        return -newId;
+    }
+
+    /**
+     * Return the id of this value if it was already sent before or else NO_ID.
+     * Unlike lookupOrDefine() this never defines a new id
+     */
+    public synchronized int lookup(T value) {
+        Integer id = outgoing.get(value);
+        return id == null ? NO_ID : id;
+    }
+
+    /**
+     * Called on the receiving side when the other side defined a new id
+     */
+    public void define(int id, T value) {
+        if (id <= NO_ID || id > maxSize) {
+            throw new IllegalStateException("Dictionary id " + id + " out of range!");
+        }
+        while (incoming.size() <= id) {
+            incoming.add(null);
+        }
+        incoming.set(id, value);
+    }
+
+    public T get(int id) {
+        T value = id > NO_ID && id < incoming.size() ? incoming.get(id) : null;
+        if (value == null) {
+            throw new IllegalStateException("Unknown dictionary id " + id + "!");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,61 @@
+package mcjty.lib.network;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * The part of an ItemStack that identifies it (item, meta and tag) without the count.
+ * Used as the key for the per-connection stack cache.
+ */
+public class StackPrototype {
+
+    private final Item item;
+    private final int meta;
+    @Nullable private final NBTTagCompound tag;
+    private final int hash;
+
+    public StackPrototype(ItemStack stack) {
+        this(stack.getItem(), stack.getMetadata(), stack.getTagCompound());
+    }
+
+    private StackPrototype(Item item, int meta, @Nullable NBTTagCompound tag) {
+        this.item = item;
+        this.meta = meta;
+        this.tag = tag;
+        this.hash = 31 * (31 * item.hashCode() + meta) + (tag == null ? 0 : tag.hashCode());
+    }
+
+    /// Return a prototype with its own copy of the tag so that it is safe to remember
+    public StackPrototype copy() {
+        return tag == null ? this : new StackPrototype(item, meta, tag.copy());
+    }
+
+    public ItemStack createStack() {
+        ItemStack stack = new ItemStack(item, 1, meta);
+        if (tag != null) {
+            stack.setTagCompound(tag.copy());
+        }
+        return stack;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        StackPrototype that = (StackPrototype) o;
+        return hash == that.hash && item == that.item && meta == that.meta && Objects.equals(tag, that.tag);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,48 @@
+package mcjty.lib.network;
+
+/**
+ * A simple token bucket. Tokens are added at a fixed rate up to the capacity
+ * and every accepted action costs one token.
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+    private boolean throttled = false;
+
+    public TokenBucket(double tokensPerSecond, double capacity) {
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000.0;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Try to take a token. Returns false if the bucket is empty
+     */
+    public synchronized boolean tryConsume() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            throttled = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true only for the first failed tryConsume() after a successful one.
+     * Useful to log a problem only once
+     */
+    public synchronized boolean startThrottling() {
+        if (throttled) {
+            return false;
+        }
+        throttled = true;
+        return true;
+    }
+}
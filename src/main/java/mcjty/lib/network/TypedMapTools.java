@@ -15,6 +15,7 @@ import java.util.Map;
 public class TypedMapTools {
 
     private static Map<Type<?>, ArgumentType> typeToIndex = null;
+    private static final Type<?>[] indexToType = new Type<?>[ArgumentType.values().length];
 
     private static void setupTypeMapping() {
         if (typeToIndex == null) {
@@ -34,6 +35,7 @@ public class TypedMapTools {
 
     private static void registerMapping(Type<?> type, ArgumentType argumentType) {
         typeToIndex.put(type, argumentType);
+        indexToType[argumentType.ordinal()] = type;
     }
 
     private static ArgumentType getArgumentType(Type<?> type) {
@@ -41,168 +43,305 @@ public class TypedMapTools {
         return typeToIndex.get(type);
     }
 
+    private static Type<?> getType(ArgumentType argumentType) {
+        setupTypeMapping();
+        return indexToType[argumentType.ordinal()];
+    }
+
     public static TypedMap readArguments(ByteBuf buf) {
+        if ((buf.getByte(buf.readerIndex()) & COMPACT_MARKER) != 0) {
+            return readArgumentsCompact(buf);
+        }
         TypedMap.Builder args = TypedMap.builder();
         int size = buf.readInt();
         if (size != 0) {
             for (int i = 0 ; i < size ; i++) {
                 String key = NetworkTools.readString(buf);
                 ArgumentType type = ArgumentType.getType(buf.readByte());
-                switch (type) {
-                    case TYPE_STRING:
-                        args.put(new Key<>(key, Type.STRING), NetworkTools.readString(buf));
-                        break;
-                    case TYPE_INTEGER:
-                        args.put(new Key<>(key, Type.INTEGER), buf.readInt());
-                        break;
-                    case TYPE_LONG:
-                        args.put(new Key<>(key, Type.LONG), buf.readLong());
-                        break;
-                    case TYPE_BOOLEAN:
-                        args.put(new Key<>(key, Type.BOOLEAN), buf.readBoolean());
-                        break;
-                    case TYPE_DOUBLE:
-                        args.put(new Key<>(key, Type.DOUBLE), buf.readDouble());
-                        break;
-                    case TYPE_BLOCKPOS:
-                        if (buf.readBoolean()) {
-                            args.put(new Key<>(key, Type.BLOCKPOS), NetworkTools.readPos(buf));
-                        } else {
-                            args.put(new Key<>(key, Type.BLOCKPOS), null);
-                        }
-                        break;
-                    case TYPE_STACK:
-                        if (buf.readBoolean()) {
-                            args.put(new Key<>(key, Type.ITEMSTACK), NetworkTools.readItemStack(buf));
-                        } else {
-                            args.put(new Key<>(key, Type.ITEMSTACK), null);
-                        }
-                        break;
-                    case TYPE_STRING_LIST: {
-                        int s = buf.readInt();
-                        if (s == -1) {
-                            args.put(new Key<>(key, Type.STRING_LIST), null);
-                        } else {
-                            List<String> list = new ArrayList<>(s);
-                            for (int j = 0; j < s; j++) {
-                                list.add(NetworkTools.readStringUTF8(buf));
-                            }
-                            args.put(new Key<>(key, Type.STRING_LIST), list);
-                        }
-                        break;
-                    }
-                    case TYPE_ITEMSTACK_LIST: {
-                        int s = buf.readInt();
-                        if (s == -1) {
-                            args.put(new Key<>(key, Type.ITEMSTACK_LIST), null);
-                        } else {
-                            List<ItemStack> list = new ArrayList<>(s);
-                            for (int j = 0; j < s; j++) {
-                                list.add(NetworkTools.readItemStack(buf));
-                            }
-                            args.put(new Key<>(key, Type.ITEMSTACK_LIST), list);
-                        }
-                        break;
-                    }
-                    case TYPE_POS_LIST: {
-                        int s = buf.readInt();
-                        if (s == -1) {
-                            args.put(new Key<>(key, Type.POS_LIST), null);
-                        } else {
-                            List<BlockPos> list = new ArrayList<>(s);
-                            for (int j = 0; j < s; j++) {
-                                list.add(NetworkTools.readPos(buf));
-                            }
-                            args.put(new Key<>(key, Type.POS_LIST), list);
-                        }
-                        break;
-                    }
-                    default:
-                        throw new RuntimeException("Unsupported type for key '" + key + "'!");
+                if (type == null) {
+                    throw new RuntimeException("Unsupported type for key '" + key + "'!");
                 }
+                readValue(buf, args, new Key<>(key, getType(type)), type, false);
             }
         }
         return args.build();
     }
 
     public static void writeArguments(ByteBuf buf, TypedMap args) {
+        NetworkSession session = NetworkSession.encoding();
+        if (session != null && session.isCompact()) {
+            writeArgumentsCompact(buf, args, session.getKeys());
+            return;
+        }
         buf.writeInt(args.size());
         for (Key<?> key : args.getKeys()) {
             NetworkTools.writeString(buf, key.getName());
             ArgumentType argumentType = getArgumentType(key.getType());
             buf.writeByte(argumentType.ordinal());
-            switch (argumentType) {
-                case TYPE_STRING:
-                    NetworkTools.writeString(buf, (String) args.get(key));
-                    break;
-                case TYPE_INTEGER:
-                    buf.writeInt((Integer) args.get(key));
-                    break;
-                case TYPE_BLOCKPOS: {
-                    BlockPos pos = (BlockPos) args.get(key);
-                    if (pos != null) {
-                        buf.writeBoolean(true);
-                        NetworkTools.writePos(buf, pos);
-                    } else {
-                        buf.writeBoolean(false);
+            writeValue(buf, args, key, argumentType, false);
+        }
+    }
+
+    /*
+     * Compact format (only used after the session handshake):
+     *   marker byte (COMPACT_MARKER | codec version)
+     *   varint number of keys
+     *   per key: varint (id << 1 | defined). If 'defined' is set the name (varint UTF8) and
+     *   the argument type follow and the id is remembered for this connection. Id 0 is
+     *   an inline key that is not remembered. INTEGER and LONG values are zig-zag varints.
+     * The marker has the high bit set which can never happen for the legacy int size.
+     */
+    private static final int COMPACT_MARKER = 0x80;
+
+    private static TypedMap readArgumentsCompact(ByteBuf buf) {
+        int version = buf.readByte() & ~COMPACT_MARKER;
+        if (version > NetworkSession.CODEC_VERSION) {
+            throw new RuntimeException("Unsupported argument codec version " + version + "!");
+        }
+        NetworkSession session = NetworkSession.decoding();
+        if (session == null) {
+            throw new RuntimeException("Received compact arguments outside of a network session!");
+        }
+        SessionDictionary<Key<?>> keys = session.getKeys();
+        TypedMap.Builder args = TypedMap.builder();
+        int size = NetworkTools.readVarInt(buf);
+        for (int i = 0 ; i < size ; i++) {
+            int tag = NetworkTools.readVarInt(buf);
+            int id = tag >>> 1;
+            Key<?> key;
+            if ((tag & 1) != 0) {
+                String name = NetworkTools.readVarString(buf);
+                ArgumentType type = ArgumentType.getType(buf.readByte());
+                if (type == null) {
+                    throw new RuntimeException("Unsupported type for key '" + name + "'!");
+                }
+                key = new Key<>(name, getType(type));
+                if (id != SessionDictionary.NO_ID) {
+                    keys.define(id, key);
+                }
+            } else {
+                key = keys.get(id);
+            }
+            readValue(buf, args, key, getArgumentType(key.getType()), true);
+        }
+        return args.build();
+    }
+
+    private static void writeArgumentsCompact(ByteBuf buf, TypedMap args, SessionDictionary<Key<?>> keys) {
+        buf.writeByte(COMPACT_MARKER | NetworkSession.CODEC_VERSION);
+        NetworkTools.writeVarInt(buf, args.size());
+        for (Key<?> key : args.getKeys()) {
+            ArgumentType argumentType = getArgumentType(key.getType());
+            int id = keys.lookupOrDefine(key);
+            if (id > 0) {
+                NetworkTools.writeVarInt(buf, id << 1);
+            } else {
+                NetworkTools.writeVarInt(buf, ((-id) << 1) | 1);
+                NetworkTools.writeVarString(buf, key.getName());
+                buf.writeByte(argumentType.ordinal());
+            }
+            writeValue(buf, args, key, argumentType, true);
+        }
+    }
+
+    private static int readSize(ByteBuf buf, boolean compact) {
+        return compact ? NetworkTools.readSignedVarInt(buf) : buf.readInt();
+    }
+
+    private static void writeSize(ByteBuf buf, int size, boolean compact) {
+        if (compact) {
+            NetworkTools.writeSignedVarInt(buf, size);
+        } else {
+            buf.writeInt(size);
+        }
+    }
+
+    private static String readString(ByteBuf buf, boolean compact) {
+        if (compact) {
+            return buf.readBoolean() ? NetworkTools.readVarString(buf) : null;
+        } else {
+            return NetworkTools.readString(buf);
+        }
+    }
+
+    private static void writeString(ByteBuf buf, String s, boolean compact) {
+        if (compact) {
+            buf.writeBoolean(s != null);
+            if (s != null) {
+                NetworkTools.writeVarString(buf, s);
+            }
+        } else {
+            NetworkTools.writeString(buf, s);
+        }
+    }
+
+    private static <T> void put(TypedMap.Builder args, Key<T> key, Object value) {
+        args.put(key, (T) value);
+    }
+
+    private static void readValue(ByteBuf buf, TypedMap.Builder args, Key<?> key, ArgumentType type, boolean compact) {
+        switch (type) {
+            case TYPE_STRING:
+                put(args, key, readString(buf, compact));
+                break;
+            case TYPE_INTEGER:
+                args.putInt((Key<Integer>) key, compact ? NetworkTools.readSignedVarInt(buf) : buf.readInt());
+                break;
+            case TYPE_LONG:
+                args.putLong((Key<Long>) key, compact ? NetworkTools.readSignedVarLong(buf) : buf.readLong());
+                break;
+            case TYPE_BOOLEAN:
+                args.putBool((Key<Boolean>) key, buf.readBoolean());
+                break;
+            case TYPE_DOUBLE:
+                args.putDouble((Key<Double>) key, buf.readDouble());
+                break;
+            case TYPE_BLOCKPOS:
+                if (buf.readBoolean()) {
+                    put(args, key, NetworkTools.readPos(buf));
+                } else {
+                    put(args, key, null);
+                }
+                break;
+            case TYPE_STACK:
+                if (buf.readBoolean()) {
+                    put(args, key, NetworkTools.readItemStack(buf));
+                } else {
+                    put(args, key, null);
+                }
+                break;
+            case TYPE_STRING_LIST: {
+                int s = readSize(buf, compact);
+                if (s == -1) {
+                    put(args, key, null);
+                } else {
+                    List<String> list = new ArrayList<>(s);
+                    for (int j = 0; j < s; j++) {
+                        list.add(compact ? readString(buf, true) : NetworkTools.readStringUTF8(buf));
                     }
-                    break;
+                    put(args, key, list);
                 }
-                case TYPE_BOOLEAN:
-                    buf.writeBoolean((Boolean) args.get(key));
-                    break;
-                case TYPE_DOUBLE:
-                    buf.writeDouble((Double) args.get(key));
-                    break;
-                case TYPE_STACK: {
-                    ItemStack stack = (ItemStack) args.get(key);
-                    if (stack != null) {
-                        buf.writeBoolean(true);
-                        NetworkTools.writeItemStack(buf, stack);
-                    } else {
-                        buf.writeBoolean(false);
+                break;
+            }
+            case TYPE_ITEMSTACK_LIST: {
+                int s = readSize(buf, compact);
+                if (s == -1) {
+                    put(args, key, null);
+                } else {
+                    List<ItemStack> list = new ArrayList<>(s);
+                    for (int j = 0; j < s; j++) {
+                        list.add(compact ? NetworkTools.readItemStackCompact(buf) : NetworkTools.readItemStack(buf));
                     }
-                    break;
+                    put(args, key, list);
                 }
-                case TYPE_LONG:
-                    buf.writeLong((Long) args.get(key));
-                    break;
-                case TYPE_STRING_LIST: {
-                    List<String> list = (List<String>) args.get(key);
-                    if (list != null) {
-                        buf.writeInt(list.size());
-                        for (String s : list) {
+                break;
+            }
+            case TYPE_POS_LIST: {
+                int s = readSize(buf, compact);
+                if (s == -1) {
+                    put(args, key, null);
+                } else {
+                    List<BlockPos> list = new ArrayList<>(s);
+                    for (int j = 0; j < s; j++) {
+                        list.add(NetworkTools.readPos(buf));
+                    }
+                    put(args, key, list);
+                }
+                break;
+            }
+            default:
+                throw new RuntimeException("Unsupported type for key '" + key.getName() + "'!");
+        }
+    }
+
+    private static void writeValue(ByteBuf buf, TypedMap args, Key<?> key, ArgumentType argumentType, boolean compact) {
+        switch (argumentType) {
+            case TYPE_STRING:
+                writeString(buf, (String) args.get(key), compact);
+                break;
+            case TYPE_INTEGER:
+                if (compact) {
+                    NetworkTools.writeSignedVarInt(buf, args.getInt((Key<Integer>) key));
+                } else {
+                    buf.writeInt(args.getInt((Key<Integer>) key));
+                }
+                break;
+            case TYPE_BLOCKPOS: {
+                BlockPos pos = (BlockPos) args.get(key);
+                if (pos != null) {
+                    buf.writeBoolean(true);
+                    NetworkTools.writePos(buf, pos);
+                } else {
+                    buf.writeBoolean(false);
+                }
+                break;
+            }
+            case TYPE_BOOLEAN:
+                buf.writeBoolean(args.getBool((Key<Boolean>) key));
+                break;
+            case TYPE_DOUBLE:
+                buf.writeDouble(args.getDouble((Key<Double>) key));
+                break;
+            case TYPE_STACK: {
+                ItemStack stack = (ItemStack) args.get(key);
+                if (stack != null) {
+                    buf.writeBoolean(true);
+                    NetworkTools.writeItemStack(buf, stack);
+                } else {
+                    buf.writeBoolean(false);
+                }
+                break;
+            }
+            case TYPE_LONG:
+                if (compact) {
+                    NetworkTools.writeSignedVarLong(buf, args.getLong((Key<Long>) key));
+                } else {
+                    buf.writeLong(args.getLong((Key<Long>) key));
+                }
+                break;
+            case TYPE_STRING_LIST: {
+                List<String> list = (List<String>) args.get(key);
+                if (list != null) {
+                    writeSize(buf, list.size(), compact);
+                    for (String s : list) {
+                        if (compact) {
+                            writeString(buf, s, true);
+                        } else {
                             NetworkTools.writeStringUTF8(buf, s);
                         }
-                    } else {
-                        buf.writeInt(-1);
                     }
-                    break;
+                } else {
+                    writeSize(buf, -1, compact);
                 }
-                case TYPE_ITEMSTACK_LIST: {
-                    List<ItemStack> list = (List<ItemStack>) args.get(key);
-                    if (list != null) {
-                        buf.writeInt(list.size());
-                        for (ItemStack s : list) {
+                break;
+            }
+            case TYPE_ITEMSTACK_LIST: {
+                List<ItemStack> list = (List<ItemStack>) args.get(key);
+                if (list != null) {
+                    writeSize(buf, list.size(), compact);
+                    for (ItemStack s : list) {
+                        if (compact) {
+                            NetworkTools.writeItemStackCompact(buf, s, NetworkSession.encoding());
+                        } else {
                             NetworkTools.writeItemStack(buf, s);
                         }
-                    } else {
-                        buf.writeInt(-1);
                     }
-                    break;
+                } else {
+                    writeSize(buf, -1, compact);
                 }
-                case TYPE_POS_LIST: {
-                    List<BlockPos> list = (List<BlockPos>) args.get(key);
-                    if (list != null) {
-                        buf.writeInt(list.size());
-                        for (BlockPos s : list) {
-                            NetworkTools.writePos(buf, s);
-                        }
-                    } else {
-                        buf.writeInt(-1);
+                break;
+            }
+            case TYPE_POS_LIST: {
+                List<BlockPos> list = (List<BlockPos>) args.get(key);
+                if (list != null) {
+                    writeSize(buf, list.size(), compact);
+                    for (BlockPos s : list) {
+                        NetworkTools.writePos(buf, s);
                     }
-                    break;
+                } else {
+                    writeSize(buf, -1, compact);
                 }
+                break;
             }
         }
     }
@@ -5,16 +5,35 @@ import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
 import javax.annotation.Nullable;
+import java.util.function.LongConsumer;
 
 public class Context {
 
     private final MessageContext context;
+    // If not null the time spent in work scheduled with enqueueWork() is given to this
+    @Nullable private final LongConsumer workTimer;
 
     public Context(MessageContext context) {
+        this(context, null);
+    }
+
+    public Context(MessageContext context, @Nullable LongConsumer workTimer) {
         this.context = context;
+        this.workTimer = workTimer;
     }
 
     public void enqueueWork(Runnable runnable) {
+        if (workTimer != null) {
+            Runnable work = runnable;
+            runnable = () -> {
+                long start = System.nanoTime();
+                try {
+                    work.run();
+                } finally {
+                    workTimer.accept(System.nanoTime() - start);
+                }
+            };
+        }
         FMLCommonHandler.instance().getWorldThread(context.netHandler).addScheduledTask(runnable);
     }
 
@@ -0,0 +1,278 @@
+package mcjty.lib.thirteen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcjty.lib.network.NetworkSession;
+import mcjty.lib.network.NetworkTools;
+import mcjty.lib.network.PacketBundle;
+import mcjty.lib.varia.Logging;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+import net.minecraftforge.fml.relauncher.Side;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the messages that are registered through a SimpleChannel (per network wrapper)
+ * and implements the optional bundling mode. When bundling is enabled messages are
+ * queued per player (or for the server on the client) and sent at the end of the tick
+ * as one or more PacketBundle packets. The receiving side unpacks them in order.
+ */
+public class MessageBundler {
+
+    // Maximum size of a single bundle. Stays below the client to server payload limit
+    public static final int MAX_BUNDLE_SIZE = 32000;
+
+    private static final Map<SimpleNetworkWrapper, MessageBundler> BUNDLERS = new IdentityHashMap<>();
+
+    private final SimpleNetworkWrapper network;
+    private final Map<Class<?>, Integer> indices = new HashMap<>();
+    private final Map<Integer, MessageInfo<?>> serverMessages = new HashMap<>();
+    private final Map<Integer, MessageInfo<?>> clientMessages = new HashMap<>();
+
+    private volatile boolean enabled = false;
+    private final Map<EntityPlayerMP, List<IMessage>> serverQueues = new HashMap<>();
+    private final List<IMessage> clientQueue = new ArrayList<>();
+
+    private static class MessageInfo<MSG> {
+        private final BiConsumer<MSG, ByteBuf> encoder;
+        private final Function<ByteBuf, MSG> decoder;
+        private final BiConsumer<MSG, Supplier<Context>> consumer;
+
+        private MessageInfo(BiConsumer<MSG, ByteBuf> encoder, Function<ByteBuf, MSG> decoder, BiConsumer<MSG, Supplier<Context>> consumer) {
+            this.encoder = encoder;
+            this.decoder = decoder;
+            this.consumer = consumer;
+        }
+
+        private void encode(Object message, ByteBuf buf) {
+            encoder.accept((MSG) message, buf);
+        }
+
+        private void handle(ByteBuf buf, MessageContext ctx) {
+            MSG message = decoder.apply(buf);
+            consumer.accept(message, () -> new Context(ctx));
+        }
+    }
+
+    private MessageBundler(SimpleNetworkWrapper network) {
+        this.network = network;
+    }
+
+    public static MessageBundler get(SimpleNetworkWrapper network) {
+        synchronized (BUNDLERS) {
+            return BUNDLERS.computeIfAbsent(network, MessageBundler::new);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Senders skip the bundler when it is disabled, so the messages that are still
+     * queued are sent now to keep them in order
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            flushServer();
+            flushClient();
+        }
+    }
+
+    synchronized <MSG> void register(int index, Class<MSG> messageType, BiConsumer<MSG, ByteBuf> encoder, Function<ByteBuf, MSG> decoder,
+                                     BiConsumer<MSG, Supplier<Context>> messageConsumer, Side side) {
+        indices.put(messageType, index);
+        MessageInfo<MSG> info = new MessageInfo<>(encoder, decoder, messageConsumer);
+        if (side == Side.SERVER) {
+            serverMessages.put(index, info);
+        } else {
+            clientMessages.put(index, info);
+        }
+    }
+
+    private boolean canBundle(IMessage message) {
+        return enabled && indices.containsKey(message.getClass());
+    }
+
+    /**
+     * Queue a message for this player. Returns false if the message has to be sent
+     * directly. In that case everything that was queued before is sent first so that the
+     * order of messages is kept.
+     */
+    public boolean queueTo(IMessage message, EntityPlayerMP player) {
+        if (message instanceof PacketBundle) {
+            return false;
+        }
+        List<IMessage> pending;
+        synchronized (this) {
+            if (canBundle(message)) {
+                serverQueues.computeIfAbsent(player, p -> new ArrayList<>()).add(message);
+                return true;
+            }
+            pending = serverQueues.remove(player);
+        }
+        if (pending != null) {
+            sendBundles(pending, NetworkSession.get(player), bundle -> network.sendTo(bundle, player));
+        }
+        return false;
+    }
+
+    // Only use client-side!
+    public boolean queueToServer(IMessage message) {
+        if (message instanceof PacketBundle) {
+            return false;
+        }
+        List<IMessage> pending;
+        synchronized (this) {
+            if (canBundle(message)) {
+                clientQueue.add(message);
+                return true;
+            }
+            if (clientQueue.isEmpty()) {
+                return false;
+            }
+            pending = new ArrayList<>(clientQueue);
+            clientQueue.clear();
+        }
+        sendBundles(pending, NetworkSession.getClientSession(), network::sendToServer);
+        return false;
+    }
+
+    private void flushServer() {
+        Map<EntityPlayerMP, List<IMessage>> queues;
+        synchronized (this) {
+            if (serverQueues.isEmpty()) {
+                return;
+            }
+            queues = new HashMap<>(serverQueues);
+            serverQueues.clear();
+        }
+        for (Map.Entry<EntityPlayerMP, List<IMessage>> entry : queues.entrySet()) {
+            EntityPlayerMP player = entry.getKey();
+            sendBundles(entry.getValue(), NetworkSession.get(player), bundle -> network.sendTo(bundle, player));
+        }
+    }
+
+    private void flushClient() {
+        List<IMessage> pending;
+        synchronized (this) {
+            if (clientQueue.isEmpty()) {
+                return;
+            }
+            pending = new ArrayList<>(clientQueue);
+            clientQueue.clear();
+        }
+        sendBundles(pending, NetworkSession.getClientSession(), network::sendToServer);
+    }
+
+    private synchronized void forgetPlayer(EntityPlayer player) {
+        serverQueues.remove(player);
+    }
+
+    private synchronized void clearClient() {
+        clientQueue.clear();
+    }
+
+    // Encode the messages (for the session of the receiver) and send them in as few bundles as possible
+    private void sendBundles(List<IMessage> messages, NetworkSession session, Consumer<PacketBundle> sender) {
+        ByteBuf payload = PacketBundle.createPayload();
+        ByteBuf scratch = Unpooled.buffer(256);
+        NetworkSession prev = NetworkSession.enter(session);
+        try {
+            for (IMessage message : messages) {
+                Integer index;
+                MessageInfo<?> info;
+                synchronized (this) {
+                    index = indices.get(message.getClass());
+                    info = serverMessages.containsKey(index) ? serverMessages.get(index) : clientMessages.get(index);
+                }
+                scratch.clear();
+                info.encode(message, scratch);
+                int size = scratch.readableBytes();
+                if (payload.readableBytes() > 0 && payload.readableBytes() + size + 10 > MAX_BUNDLE_SIZE) {
+                    sender.accept(PacketBundle.wrap(payload));
+                    payload = PacketBundle.createPayload();
+                }
+                NetworkTools.writeVarInt(payload, index);
+                NetworkTools.writeVarInt(payload, size);
+                payload.writeBytes(scratch);
+            }
+        } finally {
+            NetworkSession.exit(prev);
+        }
+        if (payload.readableBytes() > 0) {
+            sender.accept(PacketBundle.wrap(payload));
+        }
+    }
+
+    /**
+     * Unpack a received bundle. This is called on the netty thread (like normal
+     * message handlers) and the messages are handled in the order they were sent
+     */
+    void unpack(PacketBundle bundle, MessageContext ctx) {
+        ByteBuf buf = bundle.getPayload();
+        Map<Integer, MessageInfo<?>> messages = ctx.side == Side.SERVER ? serverMessages : clientMessages;
+        while (buf.isReadable()) {
+            int index = NetworkTools.readVarInt(buf);
+            int size = NetworkTools.readVarInt(buf);
+            ByteBuf slice = buf.readSlice(size);
+            MessageInfo<?> info;
+            synchronized (this) {
+                info = messages.get(index);
+            }
+            if (info == null) {
+                Logging.logError("Unknown message " + index + " in bundle!");
+                continue;
+            }
+            info.handle(slice, ctx);
+        }
+    }
+
+    /**
+     * Send all queued messages of all channels. Called at the end of every server tick
+     */
+    public static void flushAllServer() {
+        for (MessageBundler bundler : getBundlers()) {
+            bundler.flushServer();
+        }
+    }
+
+    // Only use client-side! Called at the end of every client tick
+    public static void flushAllClient() {
+        for (MessageBundler bundler : getBundlers()) {
+            bundler.flushClient();
+        }
+    }
+
+    public static void onPlayerLoggedOut(EntityPlayer player) {
+        for (MessageBundler bundler : getBundlers()) {
+            bundler.forgetPlayer(player);
+        }
+    }
+
+    // Only use client-side! Drop the queued messages so they are not sent to the next server
+    public static void onClientDisconnect() {
+        for (MessageBundler bundler : getBundlers()) {
+            bundler.clearClient();
+        }
+    }
+
+    private static List<MessageBundler> getBundlers() {
+        synchronized (BUNDLERS) {
+            return new ArrayList<>(BUNDLERS.values());
+        }
+    }
+}
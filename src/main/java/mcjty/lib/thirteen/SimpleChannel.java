@@ -1,43 +1,106 @@
 package mcjty.lib.thirteen;
 
 import io.netty.buffer.ByteBuf;
+import mcjty.lib.network.NetworkMetrics;
+import mcjty.lib.network.PacketBundle;
 import mcjty.lib.network.PacketHandler;
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 import net.minecraftforge.fml.relauncher.Side;
 
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
 import java.util.function.Supplier;
 
 public class SimpleChannel {
 
     private final SimpleNetworkWrapper network;
+    private final MessageBundler bundler;
 
     public SimpleChannel(ResourceLocation name) {
         this.network = PacketHandler.registerMessages(name.getResourceDomain(), name.getResourcePath());
+        this.bundler = MessageBundler.get(network);
     }
 
     public SimpleChannel(SimpleNetworkWrapper network) {
         this.network = network;
+        this.bundler = MessageBundler.get(network);
     }
 
     public SimpleNetworkWrapper getNetwork() {
         return network;
     }
 
-    public <MSG extends IMessage> void registerMessageServer(int index, Class<MSG> messageType, BiConsumer<MSG, ByteBuf> encoder, Function<ByteBuf, MSG> decoder, BiConsumer<MSG, Supplier<Context>> messageConsumer) {
+    /**
+     * Enable bundling for this channel. Messages that are registered through this class
+     * are then queued and sent together at the end of the tick. The bundle message
+     * itself must be registered (see registerBundle()) on both sides. This is done
+     * by default for channels that are created through PacketHandler.
+     */
+    public SimpleChannel setBundling(boolean bundling) {
+        bundler.setEnabled(bundling);
+        return this;
+    }
+
+    public boolean isBundling() {
+        return bundler.isEnabled();
+    }
+
+    public void registerBundle(int index) {
         network.registerMessage((message, ctx) -> {
+            bundler.unpack(message, ctx);
+            return null;
+        }, PacketBundle.class, index, Side.SERVER);
+        network.registerMessage((message, ctx) -> {
+            bundler.unpack(message, ctx);
+            return null;
+        }, PacketBundle.class, index, Side.CLIENT);
+    }
+
+    private <MSG extends IMessage> void handle(MSG message, MessageContext ctx, BiConsumer<MSG, Supplier<Context>> messageConsumer) {
+        NetworkMetrics.Counters counters = NetworkMetrics.isEnabled() ? NetworkMetrics.getMessageCounters(network, message.getClass()) : null;
+        if (counters == null) {
             messageConsumer.accept(message, () -> new Context(ctx));
+            return;
+        }
+        NetworkMetrics.Counters commandCounters = NetworkMetrics.received(network, message, counters);
+        LongConsumer timer = commandCounters == null ? counters::addHandlerTime : time -> {
+            counters.addHandlerTime(time);
+            commandCounters.addHandlerTime(time);
+        };
+        messageConsumer.accept(message, () -> new Context(ctx, timer));
+    }
+
+    public <MSG extends IMessage> void registerMessageServer(int index, Class<MSG> messageType, BiConsumer<MSG, ByteBuf> encoder, Function<ByteBuf, MSG> decoder, BiConsumer<MSG, Supplier<Context>> messageConsumer) {
+        network.registerMessage((message, ctx) -> {
+            handle(message, ctx, messageConsumer);
             return null;
         }, messageType, index, Side.SERVER);
+        bundler.register(index, messageType, encoder, decoder, messageConsumer, Side.SERVER);
     }
 
     public <MSG extends IMessage> void registerMessageClient(int index, Class<MSG> messageType, BiConsumer<MSG, ByteBuf> encoder, Function<ByteBuf, MSG> decoder, BiConsumer<MSG, Supplier<Context>> messageConsumer) {
         network.registerMessage((message, ctx) -> {
-            messageConsumer.accept(message, () -> new Context(ctx));
+            handle(message, ctx, messageConsumer);
             return null;
         }, messageType, index, Side.CLIENT);
+        bundler.register(index, messageType, encoder, decoder, messageConsumer, Side.CLIENT);
+    }
+
+    public <MSG extends IMessage> void sendTo(MSG message, EntityPlayerMP player) {
+        if (!bundler.queueTo(message, player)) {
+            network.sendTo(message, player);
+        }
+    }
+
+    // Only use client-side!
+    public <MSG extends IMessage> void sendToServer(MSG message) {
+        if (!bundler.queueToServer(message)) {
+            network.sendToServer(message);
+        }
     }
 }
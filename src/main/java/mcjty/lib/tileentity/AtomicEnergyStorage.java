@@ -0,0 +1,153 @@
+package mcjty.lib.tileentity;
+
+import mcjty.lib.varia.EnergyTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A McJtyEnergyStorage that can be used from any thread (computer integrations, HUD
+ * providers, metrics, ...). Receive, extract and modify are lock-free compare-and-set
+ * loops. The capacity never changes so getEnergyLevel() is always consistent.
+ * Use the 'threadSafe' constructor of GenericEnergyStorageTileEntity to get one.
+ * The inherited 'energy' field is not used (always 0). Use getEnergyStored().
+ * Note that with telemetry enabled (enableTelemetry()) every successful change also
+ * takes the (usually uncontended) lock of the EnergyTelemetry.
+ */
+public class AtomicEnergyStorage extends McJtyEnergyStorage {
+
+    private final AtomicLong stored;
+    // Final copy of the capacity so that it is safely visible to other threads
+    private final long limit;
+    private volatile long receiveRate;
+    private volatile long extractRate;
+
+    public AtomicEnergyStorage(long capacity) {
+        this(capacity, capacity, capacity, 0);
+    }
+
+    public AtomicEnergyStorage(long capacity, long maxReceive, long maxExtract, long energy) {
+        // The energy is only kept in 'stored' so that nothing can read an outdated copy
+        super(capacity, maxReceive, maxExtract, 0);
+        this.stored = new AtomicLong(Math.max(0, Math.min(capacity, energy)));
+        this.limit = capacity;
+        this.receiveRate = maxReceive;
+        this.extractRate = maxExtract;
+    }
+
+    @Override
+    public long receiveEnergy(long maxReceive, boolean simulate) {
+        long rate = receiveRate;
+        if (rate <= 0) {
+            return 0;
+        }
+        while (true) {
+            long current = stored.get();
+            long received = Math.min(limit - current, Math.min(rate, maxReceive));
+            if (received <= 0) {
+                return 0;
+            }
+            if (simulate) {
+                return received;
+            }
+            if (stored.compareAndSet(current, current + received)) {
+                recordReceived(received);
+                return received;
+            }
+        }
+    }
+
+    @Override
+    public long extractEnergy(long maxExtract, boolean simulate) {
+        long rate = extractRate;
+        if (rate <= 0) {
+            return 0;
+        }
+        while (true) {
+            long current = stored.get();
+            long extracted = Math.min(current, Math.min(rate, maxExtract));
+            if (extracted <= 0) {
+                return 0;
+            }
+            if (simulate) {
+                return extracted;
+            }
+            if (stored.compareAndSet(current, current - extracted)) {
+                recordExtracted(extracted);
+                return extracted;
+            }
+        }
+    }
+
+    @Override
+    public long getEnergyStored() {
+        return stored.get();
+    }
+
+    /**
+     * Energy and capacity at one moment
+     */
+    public EnergyTools.EnergyLevel getEnergyLevel() {
+        return new EnergyTools.EnergyLevel(stored.get(), limit);
+    }
+
+    @Override
+    public long getMaxEnergyStored() {
+        return limit;
+    }
+
+    @Override
+    public boolean canExtract() {
+        return extractRate > 0;
+    }
+
+    @Override
+    public boolean canReceive() {
+        return receiveRate > 0;
+    }
+
+    @Override
+    public void modifyEnergyStored(long energy) {
+        while (true) {
+            long current = stored.get();
+            long delta = energy;
+            if (delta > limit - current) {
+                delta = limit - current;
+            } else if (delta < -current) {
+                delta = -current;
+            }
+            if (stored.compareAndSet(current, current + delta)) {
+                if (delta > 0) {
+                    recordReceived(delta);
+                } else {
+                    recordExtracted(-delta);
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void setMaxReceive(long max) {
+        super.setMaxReceive(max);
+        this.receiveRate = max;
+    }
+
+    @Override
+    public void setMaxExtract(long max) {
+        super.setMaxExtract(max);
+        this.extractRate = max;
+    }
+
+    @Override
+    public McJtyEnergyStorage readFromNBT(NBTTagCompound nbt) {
+        stored.set(Math.max(0, Math.min(limit, nbt.getLong("Energy"))));
+        return this;
+    }
+
+    @Override
+    public NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+        nbt.setLong("Energy", stored.get());
+        return nbt;
+    }
+}
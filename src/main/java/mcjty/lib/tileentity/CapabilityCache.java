@@ -0,0 +1,85 @@
+package mcjty.lib.tileentity;
+
+import net.minecraft.util.EnumFacing;
+import net.minecraftforge.common.capabilities.Capability;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * The capabilities of a tile entity (see GenericTileEntity.registerCapabilities()). The instance
+ * for every capability and facing is asked from its provider once and then kept in a small array
+ * so that pipes and cables that ask every tick only do an identity search.
+ */
+public class CapabilityCache {
+
+    private static final Object UNRESOLVED = new Object();
+    private static final int FACINGS = EnumFacing.values().length + 1;
+
+    private Capability<?>[] capabilities = new Capability<?>[0];
+    private Function<EnumFacing, ?>[] providers = new Function<?, ?>[0];
+    // Per facing (null facing last) the resolved instance of every capability
+    private Object[] resolved = new Object[0];
+
+    /**
+     * Add a capability. The provider is called once per facing and can return null
+     * if the capability is not available on that side. Capabilities of mods that
+     * are not present (null) are ignored
+     */
+    public <T> CapabilityCache register(@Nullable Capability<T> capability, Function<EnumFacing, T> provider) {
+        if (capability == null) {
+            return this;
+        }
+        int i = indexOf(capability);
+        if (i < 0) {
+            i = capabilities.length;
+            capabilities = Arrays.copyOf(capabilities, i + 1);
+            providers = Arrays.copyOf(providers, i + 1);
+        }
+        capabilities[i] = capability;
+        providers[i] = provider;
+        resolved = new Object[capabilities.length * FACINGS];
+        Arrays.fill(resolved, UNRESOLVED);
+        return this;
+    }
+
+    private int indexOf(Capability<?> capability) {
+        for (int i = 0 ; i < capabilities.length ; i++) {
+            if (capabilities[i] == capability) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The instance for this capability and facing or null if this capability was not registered
+     * or is not available on that side
+     */
+    @Nullable
+    public <T> T get(Capability<T> capability, @Nullable EnumFacing facing) {
+        int i = indexOf(capability);
+        if (i < 0) {
+            return null;
+        }
+        int idx = (facing == null ? FACINGS - 1 : facing.ordinal()) * capabilities.length + i;
+        Object instance = resolved[idx];
+        if (instance == UNRESOLVED) {
+            instance = providers[i].apply(facing);
+            resolved[idx] = instance;
+        }
+        return (T) instance;
+    }
+
+    public boolean has(Capability<?> capability, @Nullable EnumFacing facing) {
+        return get(capability, facing) != null;
+    }
+
+    /**
+     * Forget the resolved instances (the providers are kept)
+     */
+    public void clear() {
+        Arrays.fill(resolved, UNRESOLVED);
+    }
+}
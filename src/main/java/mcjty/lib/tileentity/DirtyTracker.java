@@ -0,0 +1,64 @@
+package mcjty.lib.tileentity;
+
+import it.unimi.dsi.fastutil.longs.Long2BooleanMap;
+import it.unimi.dsi.fastutil.longs.Long2BooleanOpenHashMap;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Tile entities that have to be sent to the client. Changes during a tick are collected per
+ * world and handled once at the end of the server tick, so a tile entity that changes several
+ * times in one tick only does a single notifyBlockUpdate() (and comparator update). The chunk
+ * itself is marked dirty immediately by the caller (GenericTileEntity.markDirtyQuick()) so that
+ * an autosave in the same tick still sees the change. Only used on the server main thread.
+ */
+public class DirtyTracker {
+
+    // Per world: packed position -> true if comparators also have to be updated (what markDirty() does)
+    private static final Map<World, Long2BooleanMap> dirty = new IdentityHashMap<>();
+
+    public static void markDirty(TileEntity te, boolean comparators) {
+        Long2BooleanMap positions = dirty.computeIfAbsent(te.getWorld(), w -> new Long2BooleanOpenHashMap());
+        long pos = te.getPos().toLong();
+        if (comparators) {
+            positions.put(pos, true);
+        } else if (!positions.containsKey(pos)) {
+            positions.put(pos, false);
+        }
+    }
+
+    public static void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<World, Long2BooleanMap> entry : dirty.entrySet()) {
+            World world = entry.getKey();
+            for (Long2BooleanMap.Entry e : entry.getValue().long2BooleanEntrySet()) {
+                BlockPos pos = BlockPos.fromLong(e.getLongKey());
+                if (!world.isBlockLoaded(pos)) {
+                    continue;
+                }
+                TileEntity te = world.getTileEntity(pos);
+                if (te == null || te.isInvalid()) {
+                    continue;
+                }
+                IBlockState state = world.getBlockState(pos);
+                if (e.getBooleanValue() && state.getBlock() != Blocks.AIR) {
+                    world.updateComparatorOutputLevel(pos, state.getBlock());
+                }
+                world.notifyBlockUpdate(pos, state, state, 3);
+            }
+        }
+        dirty.clear();
+    }
+
+    public static void onWorldUnload(World world) {
+        dirty.remove(world);
+    }
+}
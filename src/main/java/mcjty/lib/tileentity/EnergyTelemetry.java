@@ -0,0 +1,181 @@
+package mcjty.lib.tileentity;
+
+import mcjty.lib.McJtyLib;
+import mcjty.lib.container.ContainerFactory;
+import mcjty.lib.container.GenericContainer;
+import mcjty.lib.network.PacketEnergyTelemetry;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.IInventory;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Energy received and extracted by a McJtyEnergyStorage per tick. The last minute is kept
+ * in a ring buffer with running sums for the 1, 10 and 60 second windows so that the rolling
+ * averages are cheap to read. Enable it with McJtyEnergyStorage.enableTelemetry().
+ * The ticks are counted by the server (see tick()) so this is only useful server side.
+ * Players that have the GUI of a GenericEnergyStorageTileEntity open get the energy and
+ * the window totals with a PacketEnergyTelemetry when they change.
+ */
+public class EnergyTelemetry {
+
+    public enum Window {
+        SECONDS_1(20),
+        SECONDS_10(200),
+        SECONDS_60(1200);
+
+        private final int ticks;
+
+        Window(int ticks) {
+            this.ticks = ticks;
+        }
+
+        public int getTicks() {
+            return ticks;
+        }
+    }
+
+    private static final Window[] WINDOWS = Window.values();
+    private static final int SIZE = 1200;
+    public static final int SYNC_INTERVAL = 10;
+    // Number of values in a PacketEnergyTelemetry: the energy and then the totals (see getTotals())
+    public static final int SYNC_VALUES = 1 + WINDOWS.length * 2;
+
+    private static volatile long currentTick = 0;
+    // The values that were last sent to a container
+    private static final Map<Container, long[]> lastSent = new WeakHashMap<>();
+
+    private final long[] received = new long[SIZE];
+    private final long[] extracted = new long[SIZE];
+    private final long[] receivedSums = new long[WINDOWS.length];
+    private final long[] extractedSums = new long[WINDOWS.length];
+    private long lastTick = currentTick;
+
+    public synchronized void received(long amount) {
+        advance();
+        received[(int) (lastTick % SIZE)] += amount;
+        for (int i = 0 ; i < WINDOWS.length ; i++) {
+            receivedSums[i] += amount;
+        }
+    }
+
+    public synchronized void extracted(long amount) {
+        advance();
+        extracted[(int) (lastTick % SIZE)] += amount;
+        for (int i = 0 ; i < WINDOWS.length ; i++) {
+            extractedSums[i] += amount;
+        }
+    }
+
+    /**
+     * Total energy received in the window (including the current tick)
+     */
+    public synchronized long getReceived(Window window) {
+        advance();
+        return receivedSums[window.ordinal()];
+    }
+
+    /**
+     * Total energy extracted in the window (including the current tick)
+     */
+    public synchronized long getExtracted(Window window) {
+        advance();
+        return extractedSums[window.ordinal()];
+    }
+
+    /**
+     * Average RF/t received over the window
+     */
+    public double getAverageReceived(Window window) {
+        return getReceived(window) / (double) window.getTicks();
+    }
+
+    /**
+     * Average RF/t extracted over the window
+     */
+    public double getAverageExtracted(Window window) {
+        return getExtracted(window) / (double) window.getTicks();
+    }
+
+    // Move the ring buffer to the current tick. Every tick that passes drops the oldest
+    // tick of every window from its sum
+    private void advance() {
+        long now = currentTick;
+        if (now - lastTick >= SIZE) {
+            Arrays.fill(received, 0);
+            Arrays.fill(extracted, 0);
+            Arrays.fill(receivedSums, 0);
+            Arrays.fill(extractedSums, 0);
+            lastTick = now;
+            return;
+        }
+        while (lastTick < now) {
+            lastTick++;
+            for (int i = 0 ; i < WINDOWS.length ; i++) {
+                int old = (int) ((lastTick - WINDOWS[i].getTicks()) % SIZE);
+                if (old >= 0) {
+                    receivedSums[i] -= received[old];
+                    extractedSums[i] -= extracted[old];
+                }
+            }
+            int idx = (int) (lastTick % SIZE);
+            received[idx] = 0;
+            extracted[idx] = 0;
+        }
+    }
+
+    /**
+     * Copy the totals of all windows to 'values' at 'offset': received for every window and then extracted
+     */
+    public synchronized void getTotals(long[] values, int offset) {
+        advance();
+        System.arraycopy(receivedSums, 0, values, offset, WINDOWS.length);
+        System.arraycopy(extractedSums, 0, values, offset + WINDOWS.length, WINDOWS.length);
+    }
+
+    /**
+     * Count the server tick and send the telemetry to players that have a GUI open.
+     * Called at the end of every server tick
+     */
+    public static void tick() {
+        currentTick++;
+        if (currentTick % SYNC_INTERVAL != 0) {
+            return;
+        }
+        MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+        if (server == null) {
+            return;
+        }
+        for (EntityPlayerMP player : server.getPlayerList().getPlayers()) {
+            Container container = player.openContainer;
+            if (!(container instanceof GenericContainer)) {
+                continue;
+            }
+            IInventory inventory = ((GenericContainer) container).getInventory(ContainerFactory.CONTAINER_CONTAINER);
+            if (!(inventory instanceof GenericEnergyStorageTileEntity)) {
+                continue;
+            }
+            GenericEnergyStorageTileEntity te = (GenericEnergyStorageTileEntity) inventory;
+            EnergyTelemetry telemetry = te.storage.getTelemetry();
+            if (telemetry == null || te.isInvalid()) {
+                continue;
+            }
+            long[] values = new long[SYNC_VALUES];
+            values[0] = te.storage.getEnergyStored();
+            telemetry.getTotals(values, 1);
+            if (!Arrays.equals(values, lastSent.get(container))) {
+                lastSent.put(container, values);
+                McJtyLib.networkHandler.sendTo(new PacketEnergyTelemetry(te.getPos(), values), player);
+            }
+        }
+    }
+
+    public static void clear() {
+        lastSent.clear();
+    }
+}
@@ -1,9 +1,8 @@
 package mcjty.lib.tileentity;
 
-import mcjty.lib.varia.EnergyTools;
+import mcjty.lib.McJtyLib;
+import mcjty.lib.compat.TeslaCompatibility;
 import net.darkhax.tesla.api.ITeslaConsumer;
-import net.minecraft.util.EnumFacing;
-import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.fml.common.Optional;
 
 @Optional.InterfaceList({
@@ -19,24 +18,20 @@ public class GenericEnergyReceiverTileEntity extends GenericEnergyStorageTileEnt
         super(maxEnergy, maxReceive, maxExtract);
     }
 
-    public void consumeEnergy(long consume) {
-        modifyEnergyStored(-consume);
+    public GenericEnergyReceiverTileEntity(long maxEnergy, long maxReceive, long maxExtract, boolean threadSafe) {
+        super(maxEnergy, maxReceive, maxExtract, threadSafe);
     }
 
-    @Override
-    public boolean hasCapability(Capability<?> capability, EnumFacing facing) {
-        if (capability == EnergyTools.TESLA_CONSUMER) {
-            return true;
-        }
-        return super.hasCapability(capability, facing);
+    public void consumeEnergy(long consume) {
+        modifyEnergyStored(-consume);
     }
 
     @Override
-    public <T> T getCapability(Capability<T> capability, EnumFacing facing) {
-        if (capability == EnergyTools.TESLA_CONSUMER) {
-            return (T) this;
+    protected void registerCapabilities(CapabilityCache capabilities) {
+        super.registerCapabilities(capabilities);
+        if (McJtyLib.tesla) {
+            TeslaCompatibility.registerConsumer(capabilities, this);
         }
-        return super.getCapability(capability, facing);
     }
 
     // -----------------------------------------------------------
@@ -45,6 +40,6 @@ public class GenericEnergyReceiverTileEntity extends GenericEnergyStorageTileEnt
 
     @Override
     public long givePower(long power, boolean simulated) {
-        return storage.receiveEnergy(power, simulated);
+        return receiveEnergy(power, simulated);
     }
 }
@@ -1,14 +1,15 @@
 package mcjty.lib.tileentity;
 
+import mcjty.lib.McJtyLib;
 import mcjty.lib.api.power.IBigPower;
+import mcjty.lib.compat.TeslaCompatibility;
+import mcjty.lib.network.CommandNames;
 import mcjty.lib.typed.Key;
 import mcjty.lib.typed.Type;
 import mcjty.lib.typed.TypedMap;
 import mcjty.lib.varia.EnergyTools;
 import net.darkhax.tesla.api.ITeslaHolder;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.util.EnumFacing;
-import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.energy.CapabilityEnergy;
 import net.minecraftforge.energy.IEnergyStorage;
 import net.minecraftforge.fml.common.Optional;
@@ -23,13 +24,28 @@ public class GenericEnergyStorageTileEntity extends GenericTileEntity implements
 
     public static final String CMD_GETENERGY = "getEnergy";
 
+    private static final int ID_GETENERGY = CommandNames.register(CMD_GETENERGY);
+
     public static final Key<Long> PARAM_ENERGY = new Key<>("energy", Type.LONG);
 
     protected McJtyEnergyStorage storage;
 
+    private static final int TELEMETRY_WINDOWS = EnergyTelemetry.Window.values().length;
+
     private static long currentRF = 0;
 
-    private int requestRfDelay = 3;
+    // Client side copy of the energy and the EnergyTelemetry totals (see PacketEnergyTelemetry)
+    private long clientEnergy = 0;
+    private long[] clientTelemetry = null;
+
+    // Receive energy from outside and wake up the machine if it was sleeping (see registerScheduledTick())
+    public long receiveEnergy(long maxReceive, boolean simulate) {
+        long received = storage.receiveEnergy(maxReceive, simulate);
+        if (received > 0 && !simulate) {
+            wakeScheduledTick();
+        }
+        return received;
+    }
 
     public void modifyEnergyStored(long energy) {
         storage.modifyEnergyStored(energy);
@@ -46,6 +62,15 @@ public class GenericEnergyStorageTileEntity extends GenericTileEntity implements
         storage.setMaxExtract(maxExtract);
     }
 
+    /**
+     * With threadSafe the energy can be read and changed from other threads (see AtomicEnergyStorage)
+     */
+    public GenericEnergyStorageTileEntity(long maxEnergy, long maxReceive, long maxExtract, boolean threadSafe) {
+        storage = threadSafe ? new AtomicEnergyStorage(maxEnergy) : new McJtyEnergyStorage(maxEnergy);
+        storage.setMaxReceive(maxReceive);
+        storage.setMaxExtract(maxExtract);
+    }
+
     @Override
     public void readFromNBT(NBTTagCompound tagCompound) {
         super.readFromNBT(tagCompound);
@@ -69,22 +94,54 @@ public class GenericEnergyStorageTileEntity extends GenericTileEntity implements
         storage.writeToNBT(tagCompound);
     }
 
+    /**
+     * @deprecated the energy of the GUI that was opened last. Use getClientEnergy() instead
+     */
+    @Deprecated
     public static long getCurrentRF() {
         return currentRF;
     }
 
+    @Deprecated
     public static void setCurrentRF(long currentRF) {
         GenericEnergyStorageTileEntity.currentRF = currentRF;
     }
 
-    // Request the RF from the server. This has to be called on the client side.
+    // Request the RF from the server. This has to be called on the client side (every frame while the GUI is open).
+    // The server only sends the RF again when it changes. Not needed if the storage has telemetry enabled
+    // because then the server pushes the energy to the open GUI.
     public void requestRfFromServer(String modid) {
-        requestRfDelay--;
-        if (requestRfDelay > 0) {
-            return;
+        if (clientTelemetry == null) {
+            subscribeDataFromServer(modid, CMD_GETENERGY, TypedMap.EMPTY);
         }
-        requestRfDelay = 3;
-        requestDataFromServer(modid, CMD_GETENERGY, TypedMap.EMPTY);
+    }
+
+    // Client side: the energy as last received from the server
+    public long getClientEnergy() {
+        return clientEnergy;
+    }
+
+    // Client side: average RF/t received over the window. Only available if the storage has telemetry enabled
+    public double getClientAverageReceived(EnergyTelemetry.Window window) {
+        return clientTelemetry == null ? 0 : clientTelemetry[1 + window.ordinal()] / (double) window.getTicks();
+    }
+
+    // Client side: average RF/t extracted over the window. Only available if the storage has telemetry enabled
+    public double getClientAverageExtracted(EnergyTelemetry.Window window) {
+        return clientTelemetry == null ? 0 : clientTelemetry[1 + TELEMETRY_WINDOWS + window.ordinal()] / (double) window.getTicks();
+    }
+
+    // Client side: forget the pushed telemetry (when the GUI closes) so that requestRfFromServer()
+    // subscribes again until the server pushes new telemetry for the next GUI
+    public void resetClientTelemetry() {
+        clientTelemetry = null;
+    }
+
+    // Client side: called by PacketEnergyTelemetry
+    public void syncTelemetry(long[] values) {
+        clientEnergy = values[0];
+        clientTelemetry = values;
+        setCurrentRF(clientEnergy);
     }
 
     @Override
@@ -94,8 +151,8 @@ public class GenericEnergyStorageTileEntity extends GenericTileEntity implements
         if (rc != null) {
             return rc;
         }
-        if (CMD_GETENERGY.equals(command)) {
-            return TypedMap.builder().put(PARAM_ENERGY, storage.getEnergyStored()).build();
+        if (CommandNames.getId(command) == ID_GETENERGY) {
+            return TypedMap.builder().putLong(PARAM_ENERGY, storage.getEnergyStored()).build();
         }
         return null;
     }
@@ -107,7 +164,8 @@ public class GenericEnergyStorageTileEntity extends GenericTileEntity implements
             return true;
         }
         if (CMD_GETENERGY.equals(command)) {
-            setCurrentRF(result.get(PARAM_ENERGY));
+            clientEnergy = result.getLong(PARAM_ENERGY);
+            setCurrentRF(clientEnergy);
             return true;
         }
         return false;
@@ -143,7 +201,7 @@ public class GenericEnergyStorageTileEntity extends GenericTileEntity implements
 
         @Override
         public int receiveEnergy(int maxReceive, boolean simulate) {
-            return isReceiver ? (int)storage.receiveEnergy(maxReceive, simulate) : 0;
+            return isReceiver ? (int) GenericEnergyStorageTileEntity.this.receiveEnergy(maxReceive, simulate) : 0;
         }
 
         @Override
@@ -173,20 +231,11 @@ public class GenericEnergyStorageTileEntity extends GenericTileEntity implements
     };
 
     @Override
-    public boolean hasCapability(Capability<?> capability, EnumFacing facing) {
-        if (capability == CapabilityEnergy.ENERGY || capability == EnergyTools.TESLA_HOLDER) {
-            return true;
-        }
-        return super.hasCapability(capability, facing);
-    }
-
-    @Override
-    public <T> T getCapability(Capability<T> capability, EnumFacing facing) {
-        if (capability == CapabilityEnergy.ENERGY) {
-            return (T) energyStorage;
-        } else if(capability == EnergyTools.TESLA_HOLDER) {
-            return (T) this;
+    protected void registerCapabilities(CapabilityCache capabilities) {
+        super.registerCapabilities(capabilities);
+        capabilities.register(CapabilityEnergy.ENERGY, facing -> energyStorage);
+        if (McJtyLib.tesla) {
+            TeslaCompatibility.registerHolder(capabilities, this);
         }
-        return super.getCapability(capability, facing);
     }
 }
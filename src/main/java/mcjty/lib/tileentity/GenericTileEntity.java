@@ -2,15 +2,20 @@ package mcjty.lib.tileentity;
 
 import mcjty.lib.api.Infusable;
 import mcjty.lib.base.GeneralConfig;
+import mcjty.lib.bindings.ActionHolder;
+import mcjty.lib.bindings.Bindings;
 import mcjty.lib.bindings.IAction;
 import mcjty.lib.bindings.IValue;
+import mcjty.lib.bindings.ValueHolder;
 import mcjty.lib.container.InventoryHelper;
+import mcjty.lib.debugtools.TileEntityProfiler;
 import mcjty.lib.multipart.PartSlot;
 import mcjty.lib.network.*;
 import mcjty.lib.typed.Key;
 import mcjty.lib.typed.Type;
 import mcjty.lib.typed.TypedMap;
 import mcjty.lib.varia.ItemStackList;
+import mcjty.lib.varia.Logging;
 import mcjty.lib.varia.NullSidedInvWrapper;
 import mcjty.lib.varia.RedstoneMode;
 import mcjty.theoneprobe.api.IProbeHitData;
@@ -52,7 +57,9 @@ import org.lwjgl.input.Keyboard;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.function.Consumer;
 
@@ -63,6 +70,8 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
 
     public static final String COMMAND_SYNC_BINDING = "generic.syncBinding";
     public static final String COMMAND_SYNC_ACTION = "generic.syncAction";
+    private static final int ID_SYNC_BINDING = CommandNames.register(COMMAND_SYNC_BINDING);
+    private static final int ID_SYNC_ACTION = CommandNames.register(COMMAND_SYNC_ACTION);
     public static final Key<String> PARAM_KEY = new Key<>("key", Type.STRING);
 
     public static final Key<Integer> VALUE_RSMODE = new Key<>("rsmode", Type.INTEGER);
@@ -74,10 +83,44 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
     private UUID ownerUUID = null;
     private int securityChannel = -1;
 
+    private Bindings<GenericTileEntity> bindings = null;
+    private Map<String, IValue<?>> valueIndex = null;
+    private Map<String, IAction> actionIndex = null;
+
+    private TickScheduler.Entry scheduledTick = null;
+
+    // Bitmask of the synced fields (see SyncedFields) that changed this tick
+    private long syncDirty = 0;
+
     protected RedstoneMode rsMode = RedstoneMode.REDSTONE_IGNORED;
     protected int powerLevel = 0;
 
+    /**
+     * Mark this tile entity for saving and send it to the client. On the server the chunk
+     * is marked dirty immediately and the client update is done once at the end of the
+     * tick (see DirtyTracker)
+     */
     public void markDirtyClient() {
+        if (getWorld() != null && !getWorld().isRemote) {
+            markDirtyQuick();
+            DirtyTracker.markDirty(this, true);
+        } else {
+            markDirtyClientNow();
+        }
+    }
+
+    /**
+     * Only send this tile entity to the client at the end of the tick. Use this
+     * for changes that don't have to be saved
+     */
+    public void markClientUpdate() {
+        if (getWorld() != null && !getWorld().isRemote) {
+            DirtyTracker.markDirty(this, false);
+        }
+    }
+
+    // Save and send to the client immediately
+    public void markDirtyClientNow() {
         markDirty();
         if (getWorld() != null) {
             IBlockState state = getWorld().getBlockState(getPos());
@@ -88,9 +131,86 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
     public void markDirtyQuick() {
         if (getWorld() != null) {
             getWorld().markChunkDirty(this.pos, this);
+            if (!getWorld().isRemote) {
+                SaveSnapshots.discard(this);
+            }
+        }
+    }
+
+    /**
+     * Mark a synced field (see SyncedFields) as changed. At the end of the tick only the
+     * changed fields are sent to the clients instead of the full update packet
+     */
+    public void markSyncDirty(Key<?> key) {
+        if (getWorld() == null || getWorld().isRemote) {
+            return;
+        }
+        int index = SyncedFields.get(getClass()).indexOf(key);
+        if (index < 0) {
+            throw new IllegalArgumentException("'" + key.getName() + "' is not a synced field of " + getClass().getName() + "!");
+        }
+        if (syncDirty == 0) {
+            SyncedFields.schedule(this);
+        }
+        syncDirty |= 1L << index;
+        markDirtyQuick();
+    }
+
+    long takeSyncDirty() {
+        long dirty = syncDirty;
+        syncDirty = 0;
+        return dirty;
+    }
+
+    /**
+     * Call scheduledTick() every 'interval' ticks. The ticks of machines are spread based on
+     * their position. Low priority machines can be delayed a tick if there is a lot of work.
+     * Usually called from onLoad()
+     */
+    protected void registerScheduledTick(int interval, boolean lowPriority) {
+        if (getWorld() == null || getWorld().isRemote) {
+            return;
+        }
+        unregisterScheduledTick();
+        scheduledTick = TickScheduler.register(this, interval, lowPriority);
+    }
+
+    protected void unregisterScheduledTick() {
+        if (scheduledTick != null) {
+            TickScheduler.remove(scheduledTick);
+            scheduledTick = null;
+        }
+    }
+
+    /**
+     * Do the work of this machine (see registerScheduledTick()). Return false if there
+     * is nothing to do. The machine then sleeps until wakeScheduledTick() is called
+     */
+    protected boolean scheduledTick() {
+        return false;
+    }
+
+    /**
+     * Wake up a sleeping machine. Called on slot changes, redstone changes and received energy
+     */
+    public void wakeScheduledTick() {
+        if (scheduledTick != null) {
+            TickScheduler.wakeUp(scheduledTick);
         }
     }
 
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        unregisterScheduledTick();
+    }
+
+    @Override
+    public void onChunkUnload() {
+        super.onChunkUnload();
+        unregisterScheduledTick();
+    }
+
     public IValue<?>[] getValues() {
         return EMPTY_VALUES;
     }
@@ -134,6 +254,7 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
         if (powerLevel != powered) {
             powerLevel = powered;
             markDirty();
+            wakeScheduledTick();
         }
     }
 
@@ -177,8 +298,10 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
     @Nullable
     @Override
     public SPacketUpdateTileEntity getUpdatePacket() {
+        long start = TileEntityProfiler.start();
         NBTTagCompound nbtTag = new NBTTagCompound();
         this.writeClientDataToNBT(nbtTag);
+        TileEntityProfiler.sync(this, start, nbtTag);
         return new SPacketUpdateTileEntity(pos, 1, nbtTag);
     }
 
@@ -246,18 +369,26 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
         return new Object[0];
     }
 
+    /**
+     * Override and return true to only decode inventories (readBufferFromNBT() with an
+     * InventoryHelper) when they are first used. Inventories that were never used are
+     * saved again exactly as they were loaded. Speeds up chunk loading for machines with
+     * big inventories that are rarely used
+     */
+    protected boolean isLazyLoading() {
+        return false;
+    }
+
     protected void readBufferFromNBT(NBTTagCompound tagCompound, InventoryHelper inventoryHelper) {
-        readBufferFromNBT(tagCompound, "Items", inventoryHelper.getStacks());
+        if (isLazyLoading()) {
+            inventoryHelper.setUnloaded(tagCompound.getTagList("Items", Constants.NBT.TAG_COMPOUND));
+        } else {
+            readBufferFromNBT(tagCompound, "Items", inventoryHelper.getStacks());
+        }
     }
 
     protected void readBufferFromNBT(NBTTagCompound tagCompound, String tag, ItemStackList list) {
-        NBTTagList bufferTagList = tagCompound.getTagList(tag, Constants.NBT.TAG_COMPOUND);
-        for (int i = 0; i < bufferTagList.tagCount(); i++) {
-            NBTTagCompound nbtTagCompound = bufferTagList.getCompoundTagAt(i);
-            if (i < list.size()) {
-                list.set(i, new ItemStack(nbtTagCompound));
-            }
-        }
+        InventoryHelper.readStacks(tagCompound.getTagList(tag, Constants.NBT.TAG_COMPOUND), list);
     }
 
     @Override
@@ -297,20 +428,32 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
         }
     }
 
+    // Only the occupied slots are written with their slot number (a byte for the first 256 slots)
     protected void writeBufferToNBT(NBTTagCompound tagCompound, String tag, ItemStackList list) {
         NBTTagList bufferTagList = new NBTTagList();
-        for (ItemStack stack : list) {
-            NBTTagCompound nbtTagCompound = new NBTTagCompound();
+        for (int i = 0; i < list.size(); i++) {
+            ItemStack stack = list.get(i);
             if (!stack.isEmpty()) {
+                NBTTagCompound nbtTagCompound = new NBTTagCompound();
+                if (i < 256) {
+                    nbtTagCompound.setByte("Slot", (byte) i);
+                } else {
+                    nbtTagCompound.setInteger("Slot", i);
+                }
                 stack.writeToNBT(nbtTagCompound);
+                bufferTagList.appendTag(nbtTagCompound);
             }
-            bufferTagList.appendTag(nbtTagCompound);
         }
         tagCompound.setTag(tag, bufferTagList);
     }
 
     protected void writeBufferToNBT(NBTTagCompound tagCompound, InventoryHelper inventoryHelper) {
-        writeBufferToNBT(tagCompound, "Items", inventoryHelper.getStacks());
+        NBTTagList unloaded = inventoryHelper.getUnloaded();
+        if (unloaded != null) {
+            tagCompound.setTag("Items", unloaded.copy());
+        } else {
+            writeBufferToNBT(tagCompound, "Items", inventoryHelper.getStacks());
+        }
     }
 
     @Override
@@ -319,10 +462,54 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
         if (powerLevel > 0) {
             tagCompound.setByte("powered", (byte) powerLevel);
         }
-        writeRestorableToNBT(tagCompound);
+        NBTTagCompound snapshot = SaveSnapshots.take(this);
+        if (snapshot != null) {
+            tagCompound.merge(snapshot);
+        } else {
+            writeRestorableToNBT(tagCompound);
+        }
         return tagCompound;
     }
 
+    @Override
+    public void markDirty() {
+        super.markDirty();
+        if (world != null && !world.isRemote) {
+            SaveSnapshots.discard(this);
+        }
+    }
+
+    /**
+     * Override this to let the NBT for world saves be built in the background (see SaveSnapshots).
+     * Copy everything that writeRestorableToNBT() writes on the main thread (use snapshotGenericFields()
+     * and snapshotStacks()) and return a function that writes those copies to the given tag.
+     * The function is called on another thread so it must not touch this tile entity
+     */
+    @Nullable
+    protected Consumer<NBTTagCompound> createSaveSnapshot() {
+        return null;
+    }
+
+    /**
+     * Snapshot of what writeRestorableToNBT() of this class writes
+     */
+    protected final Consumer<NBTTagCompound> snapshotGenericFields() {
+        NBTTagCompound tag = new NBTTagCompound();
+        writeGenericFieldsToNBT(tag);
+        return t -> t.merge(tag);
+    }
+
+    protected static ItemStackList snapshotStacks(ItemStackList list) {
+        ItemStackList copy = ItemStackList.create(list.size());
+        for (int i = 0 ; i < list.size() ; i++) {
+            ItemStack stack = list.get(i);
+            if (!stack.isEmpty()) {
+                copy.set(i, stack.copy());
+            }
+        }
+        return copy;
+    }
+
     /**
      * Override this method to store all information that you want
      * to store in an ItemBlock in the player's inventory (when the block
@@ -331,6 +518,10 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
      * @param tagCompound
      */
     public void writeRestorableToNBT(NBTTagCompound tagCompound) {
+        writeGenericFieldsToNBT(tagCompound);
+    }
+
+    private void writeGenericFieldsToNBT(NBTTagCompound tagCompound) {
         if (needsRedstoneMode()) {
             tagCompound.setByte("rsMode", (byte) rsMode.ordinal());
         }
@@ -422,32 +613,59 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
     protected IItemHandler invHandlerNull;
     protected IItemHandler invHandlerSided;
 
-    @Override
-    public boolean hasCapability(Capability<?> capability, EnumFacing facing) {
-        if (needsCustomInvWrapper()) {
-            if (capability == CapabilityItemHandler.ITEM_HANDLER_CAPABILITY) {
-                return true;
-            }
-        }
-        return super.hasCapability(capability, facing);
-    }
+    private CapabilityCache capabilityCache = null;
 
-    @Override
-    public <T> T getCapability(Capability<T> capability, EnumFacing facing) {
-        if (capability == CapabilityItemHandler.ITEM_HANDLER_CAPABILITY) {
-            if (needsCustomInvWrapper()) {
+    /**
+     * Override this to add the capabilities of this tile entity (call super first). This
+     * is called once (or again after invalidateCapabilities()) and the result is cached per facing
+     */
+    protected void registerCapabilities(CapabilityCache capabilities) {
+        if (needsCustomInvWrapper()) {
+            capabilities.register(CapabilityItemHandler.ITEM_HANDLER_CAPABILITY, facing -> {
                 if (facing == null) {
                     if (invHandlerNull == null) {
                         invHandlerNull = new InvWrapper((IInventory) this);
                     }
-                    return (T) invHandlerNull;
+                    return invHandlerNull;
                 } else {
                     if (invHandlerSided == null) {
                         invHandlerSided = new NullSidedInvWrapper((ISidedInventory) this);
                     }
-                    return (T) invHandlerSided;
+                    return invHandlerSided;
                 }
-            }
+            });
+        }
+    }
+
+    /**
+     * Call this when the capabilities of this tile entity change (i.e. a part or module
+     * was added or removed) so that registerCapabilities() is called again
+     */
+    public void invalidateCapabilities() {
+        capabilityCache = null;
+    }
+
+    private CapabilityCache getCapabilityCache() {
+        if (capabilityCache == null) {
+            capabilityCache = new CapabilityCache();
+            registerCapabilities(capabilityCache);
+        }
+        return capabilityCache;
+    }
+
+    @Override
+    public boolean hasCapability(Capability<?> capability, EnumFacing facing) {
+        if (getCapabilityCache().has(capability, facing)) {
+            return true;
+        }
+        return super.hasCapability(capability, facing);
+    }
+
+    @Override
+    public <T> T getCapability(Capability<T> capability, EnumFacing facing) {
+        T instance = getCapabilityCache().get(capability, facing);
+        if (instance != null) {
+            return instance;
         }
         return super.getCapability(capability, facing);
     }
@@ -528,23 +746,77 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
         return false;
     }
 
-    private <V> Consumer<V> findSetter(Key<V> key) {
-        // Cache or use Map?
-        for (IValue value : getValues()) {
-            if (key.getName().equals(value.getKey().getName())) {
-                return value.setter();
+    private Bindings<GenericTileEntity> getBindings() {
+        if (bindings == null) {
+            bindings = Bindings.get(getClass());
+        }
+        return bindings;
+    }
+
+    /**
+     * Find a value by name. Values registered with Bindings are found first. After that the
+     * values from getValues() are used (these are indexed the first time this is called)
+     */
+    @Nullable
+    public IValue<?> findValue(String name) {
+        ValueHolder<GenericTileEntity, ?> holder = getBindings().getValue(name);
+        if (holder != null) {
+            return holder.bind(this);
+        }
+        if (valueIndex == null) {
+            valueIndex = new HashMap<>();
+            for (IValue<?> value : getValues()) {
+                valueIndex.put(value.getKey().getName(), value);
             }
         }
-        return null;
+        return valueIndex.get(name);
     }
 
-    private Runnable findConsumer(String key) {
-        for (IAction action : getActions()) {
-            if (key.equals(action.getKey())) {
-                return action.consumer();
+    /**
+     * Find an action by name. Actions registered with Bindings are found first. After that the
+     * actions from getActions() are used (these are indexed the first time this is called)
+     */
+    @Nullable
+    public IAction findAction(String name) {
+        ActionHolder<GenericTileEntity> holder = getBindings().getAction(name);
+        if (holder != null) {
+            return holder.bind(this);
+        }
+        if (actionIndex == null) {
+            actionIndex = new HashMap<>();
+            for (IAction action : getActions()) {
+                actionIndex.put(action.getKey(), action);
             }
         }
-        return null;
+        return actionIndex.get(name);
+    }
+
+    private <V> boolean setValue(Key<V> key, V v) {
+        ValueHolder<GenericTileEntity, V> holder = (ValueHolder<GenericTileEntity, V>) getBindings().getValue(key.getName());
+        if (holder != null) {
+            holder.setter().accept(this, v);
+            return true;
+        }
+        IValue<V> value = (IValue<V>) findValue(key.getName());
+        if (value == null) {
+            return false;
+        }
+        value.setter().accept(v);
+        return true;
+    }
+
+    private boolean runAction(String name) {
+        ActionHolder<GenericTileEntity> holder = getBindings().getAction(name);
+        if (holder != null) {
+            holder.action().accept(this);
+            return true;
+        }
+        IAction action = findAction(name);
+        if (action == null) {
+            return false;
+        }
+        action.consumer().run();
+        return true;
     }
 
     // Client side function to send a value to the server
@@ -563,15 +835,30 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
         PacketHandler.modNetworking.get(modid).sendToServer(new PacketRequestDataFromServer(modid, pos, command, params));
     }
 
+    // Client side: subscribe to the result of a command. The server sends the result (receiveDataFromServer())
+    // immediately and after that only when it changes. Keep calling this (i.e. every frame while the GUI is
+    // open) to renew the subscription. It expires on the server when this is no longer called.
+    public void subscribeDataFromServer(String modid, String command, @Nonnull TypedMap params) {
+        DataRequestCache.subscribeClient(modid, world, pos, command, params);
+    }
+
+    // Client side: stop a subscription made with subscribeDataFromServer()
+    public void unsubscribeDataFromServer(String modid, String command, @Nonnull TypedMap params) {
+        DataRequestCache.unsubscribeClient(modid, world, pos, command, params);
+    }
+
 
     @Override
     public boolean execute(EntityPlayerMP playerMP, String command, TypedMap params) {
-        if (COMMAND_SYNC_BINDING.equals(command)) {
+        int id = CommandNames.getId(command);
+        if (id == ID_SYNC_BINDING) {
             syncBinding(params);
             return true;
-        } else if (COMMAND_SYNC_ACTION.equals(command)) {
+        } else if (id == ID_SYNC_ACTION) {
             String key = params.get(PARAM_KEY);
-            findConsumer(key).run();
+            if (key == null || !runAction(key)) {
+                Logging.log("Unknown action '" + key + "'!");
+            }
             return true;
         }
         return false;
@@ -579,7 +866,9 @@ public class GenericTileEntity extends TileEntity implements ICommandHandler, IC
 
     private <T> void syncBindingHelper(TypedMap params, Key<T> bkey) {
         T o = params.get(bkey);
-        findSetter(bkey).accept(o);
+        if (!setValue(bkey, o)) {
+            Logging.log("Unknown value '" + bkey.getName() + "'!");
+        }
     }
 
     private void syncBinding(TypedMap params) {
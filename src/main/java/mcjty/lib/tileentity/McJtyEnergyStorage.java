@@ -2,11 +2,16 @@ package mcjty.lib.tileentity;
 
 import net.minecraft.nbt.NBTTagCompound;
 
+import javax.annotation.Nullable;
+
 public class McJtyEnergyStorage {
+    // Only read this from methods that are also overridden by subclasses that store
+    // the energy elsewhere (AtomicEnergyStorage). Otherwise use getEnergyStored()
     protected long energy;
     protected long capacity;
     protected long maxReceive;
     protected long maxExtract;
+    protected EnergyTelemetry telemetry = null;
 
     public McJtyEnergyStorage(long capacity) {
         this(capacity, capacity, capacity, 0);
@@ -32,8 +37,10 @@ public class McJtyEnergyStorage {
             return 0;
 
         long energyReceived = Math.min(capacity - energy, Math.min(this.maxReceive, maxReceive));
-        if (!simulate)
+        if (!simulate) {
             energy += energyReceived;
+            recordReceived(energyReceived);
+        }
         return energyReceived;
     }
 
@@ -42,8 +49,10 @@ public class McJtyEnergyStorage {
             return 0;
 
         long energyExtracted = Math.min(energy, Math.min(this.maxExtract, maxExtract));
-        if (!simulate)
+        if (!simulate) {
             energy -= energyExtracted;
+            recordExtracted(energyExtracted);
+        }
         return energyExtracted;
     }
 
@@ -71,6 +80,37 @@ public class McJtyEnergyStorage {
         }
 
         this.energy += energy;
+        if (energy > 0) {
+            recordReceived(energy);
+        } else if (energy < 0) {
+            recordExtracted(-energy);
+        }
+    }
+
+    /**
+     * Start recording the energy that flows in and out of this storage (see EnergyTelemetry)
+     */
+    public void enableTelemetry() {
+        if (telemetry == null) {
+            telemetry = new EnergyTelemetry();
+        }
+    }
+
+    @Nullable
+    public EnergyTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    protected void recordReceived(long amount) {
+        if (telemetry != null && amount > 0) {
+            telemetry.received(amount);
+        }
+    }
+
+    protected void recordExtracted(long amount) {
+        if (telemetry != null && amount > 0) {
+            telemetry.extracted(amount);
+        }
     }
 
     public void setMaxReceive(long max) {
@@ -0,0 +1,123 @@
+package mcjty.lib.tileentity;
+
+import mcjty.lib.base.GeneralConfig;
+import mcjty.lib.varia.Logging;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+
+import javax.annotation.Nullable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Builds the NBT of tile entities that support it (GenericTileEntity.createSaveSnapshot()) on
+ * worker threads for the autosave. Forge has no event before the chunks are written (WorldEvent.Save
+ * fires after that) so at the end of the tick before an autosave the snapshots of all tile entities
+ * in chunks that need saving are taken on the main thread and turned into NBT in the background.
+ * writeToNBT() during the autosave then only has to wait for the result. A snapshot is dropped as
+ * soon as the tile entity changes (markDirty()) and snapshots that were not used by the autosave
+ * are dropped at the end of the autosave tick. Only used on the server main thread.
+ */
+public class SaveSnapshots {
+
+    // MinecraftServer.tick() saves all worlds every 900 ticks
+    private static final int AUTOSAVE_INTERVAL = 900;
+
+    private static final Map<GenericTileEntity, Future<NBTTagCompound>> pending = new IdentityHashMap<>();
+    private static ExecutorService executor = null;
+
+    private static ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+            AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "McJtyLib save " + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Called at the end of every server tick. The tick counter is incremented at the start
+     * of the next tick and the autosave happens in that tick when it is a multiple of 900
+     */
+    public static void onServerTickEnd(MinecraftServer server) {
+        int tick = server.getTickCounter();
+        if (tick % AUTOSAVE_INTERVAL == 0) {
+            // The autosave of this tick is done
+            clear();
+        }
+        if (GeneralConfig.asyncSave && (tick + 1) % AUTOSAVE_INTERVAL == 0) {
+            for (WorldServer world : DimensionManager.getWorlds()) {
+                takeSnapshots(world);
+            }
+        }
+    }
+
+    private static void takeSnapshots(World world) {
+        for (TileEntity te : world.loadedTileEntityList) {
+            if (te instanceof GenericTileEntity && !te.isInvalid() && !pending.containsKey(te)
+                    && world.getChunkFromBlockCoords(te.getPos()).needsSaving(true)) {
+                Consumer<NBTTagCompound> snapshot = ((GenericTileEntity) te).createSaveSnapshot();
+                if (snapshot != null) {
+                    pending.put((GenericTileEntity) te, getExecutor().submit(() -> {
+                        NBTTagCompound tag = new NBTTagCompound();
+                        snapshot.accept(tag);
+                        return tag;
+                    }));
+                }
+            }
+        }
+    }
+
+    /**
+     * The NBT that was built in the background for this tile entity or null if there is none
+     */
+    @Nullable
+    static NBTTagCompound take(GenericTileEntity te) {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        Future<NBTTagCompound> future = pending.remove(te);
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Logging.logError("Error saving " + te.getClass().getName() + " in the background!", e.getCause());
+            return null;
+        }
+    }
+
+    static void discard(GenericTileEntity te) {
+        if (!pending.isEmpty()) {
+            Future<NBTTagCompound> future = pending.remove(te);
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    public static void clear() {
+        if (!pending.isEmpty()) {
+            pending.values().forEach(f -> f.cancel(false));
+            pending.clear();
+        }
+    }
+}
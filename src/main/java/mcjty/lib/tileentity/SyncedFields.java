@@ -0,0 +1,157 @@
+package mcjty.lib.tileentity;
+
+import mcjty.lib.McJtyLib;
+import mcjty.lib.bindings.ValueHolder;
+import mcjty.lib.network.PacketSyncFields;
+import mcjty.lib.typed.Key;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.server.management.PlayerChunkMapEntry;
+import net.minecraft.world.WorldServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Fields of a tile entity class that are synced to the client with a small delta packet
+ * instead of the full update packet that markDirtyClient() causes. Register them once
+ * in a static initializer of the tile entity:
+ *
+ * <pre>
+ *     static {
+ *         SyncedFields.register(MyTileEntity.class)
+ *                 .field(VALUE_PROGRESS, MyTileEntity::getProgress, MyTileEntity::setProgress);
+ *     }
+ * </pre>
+ *
+ * After changing a field call GenericTileEntity.markSyncDirty(). At the end of the server
+ * tick the changed fields of every tile entity are sent in one PacketSyncFields to the players
+ * watching the chunk. The full NBT (getUpdateTag()) is still used when the chunk is sent.
+ * Fields of superclasses are inherited. Supported types are INTEGER, LONG, BOOLEAN, DOUBLE,
+ * STRING, BLOCKPOS and ITEMSTACK.
+ */
+public class SyncedFields<T extends GenericTileEntity> {
+
+    public static final int MAX_FIELDS = 64;
+
+    private static final Map<Class<?>, SyncedFields<?>> registered = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, SyncedFields<?>> resolved = new ConcurrentHashMap<>();
+    private static final SyncedFields<?> EMPTY = new SyncedFields<>();
+
+    // Tile entities with changed fields. Only used on the main thread
+    private static final Set<GenericTileEntity> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final List<ValueHolder<T, ?>> fields = new ArrayList<>();
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    private SyncedFields() {
+    }
+
+    public static <T extends GenericTileEntity> SyncedFields<T> register(Class<T> clazz) {
+        SyncedFields<T> fields = new SyncedFields<>();
+        registered.put(clazz, fields);
+        resolved.clear();
+        return fields;
+    }
+
+    public static <T extends GenericTileEntity> SyncedFields<T> get(Class<? extends T> clazz) {
+        SyncedFields<?> fields = resolved.get(clazz);
+        if (fields == null) {
+            fields = resolve(clazz);
+            resolved.put(clazz, fields);
+        }
+        return (SyncedFields<T>) fields;
+    }
+
+    private static SyncedFields<?> resolve(Class<?> clazz) {
+        SyncedFields<?> own = registered.get(clazz);
+        Class<?> superClass = clazz.getSuperclass();
+        SyncedFields<?> parent = GenericTileEntity.class.isAssignableFrom(superClass) ? get((Class<? extends GenericTileEntity>) superClass) : EMPTY;
+        if (own == null) {
+            return parent;
+        }
+        if (parent.fields.isEmpty()) {
+            return own;
+        }
+        // The fields of the superclass come first so that their indices are the same for all subclasses
+        SyncedFields<GenericTileEntity> merged = new SyncedFields<>();
+        for (ValueHolder<?, ?> field : parent.fields) {
+            merged.add((ValueHolder<GenericTileEntity, ?>) field);
+        }
+        for (ValueHolder<?, ?> field : own.fields) {
+            merged.add((ValueHolder<GenericTileEntity, ?>) field);
+        }
+        return merged;
+    }
+
+    public <V> SyncedFields<T> field(Key<V> key, Function<T, V> getter, BiConsumer<T, V> setter) {
+        if (!PacketSyncFields.isSupported(key.getType())) {
+            throw new IllegalArgumentException("Unsupported type for synced field '" + key.getName() + "'!");
+        }
+        add(new ValueHolder<>(key, getter, setter));
+        return this;
+    }
+
+    private void add(ValueHolder<T, ?> field) {
+        if (fields.size() >= MAX_FIELDS) {
+            throw new IllegalStateException("Too many synced fields!");
+        }
+        indices.put(field.getKey().getName(), fields.size());
+        fields.add(field);
+    }
+
+    public int indexOf(Key<?> key) {
+        Integer index = indices.get(key.getName());
+        return index == null ? -1 : index;
+    }
+
+    public ValueHolder<T, ?> getField(int index) {
+        return fields.get(index);
+    }
+
+    public int size() {
+        return fields.size();
+    }
+
+    static void schedule(GenericTileEntity te) {
+        pending.add(te);
+    }
+
+    /**
+     * Send the changed fields of all tile entities. Called at the end of every server tick
+     */
+    public static void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<GenericTileEntity> tileEntities = new ArrayList<>(pending);
+        pending.clear();
+        for (GenericTileEntity te : tileEntities) {
+            long dirty = te.takeSyncDirty();
+            if (dirty == 0 || te.isInvalid() || !(te.getWorld() instanceof WorldServer)) {
+                continue;
+            }
+            WorldServer world = (WorldServer) te.getWorld();
+            // Only the players that watch the chunk. The entry is null if nobody does
+            PlayerChunkMapEntry entry = world.getPlayerChunkMap().getEntry(te.getPos().getX() >> 4, te.getPos().getZ() >> 4);
+            if (entry == null) {
+                continue;
+            }
+            List<EntityPlayerMP> players = entry.getWatchingPlayers();
+            if (players.isEmpty()) {
+                continue;
+            }
+            PacketSyncFields packet = new PacketSyncFields(te, get(te.getClass()), dirty);
+            for (EntityPlayerMP player : players) {
+                McJtyLib.networkHandler.sendTo(packet, player);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package mcjty.lib.tileentity;
+
+import mcjty.lib.base.GeneralConfig;
+import mcjty.lib.debugtools.TileEntityProfiler;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Runs the scheduledTick() of machines that registered with GenericTileEntity.registerScheduledTick().
+ * Every machine gets a phase based on its position so that machines with the same interval
+ * don't all work in the same tick. Machines that have nothing to do can sleep until they
+ * are woken up (slot changes, redstone or received energy). Low priority machines are
+ * deferred to the next tick if the time budget of this tick ('scheduledTickBudget') is used.
+ * Only used on the server main thread.
+ */
+public class TickScheduler {
+
+    private static final Map<World, TickScheduler> schedulers = new IdentityHashMap<>();
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>((a, b) -> Long.compare(a.nextTick, b.nextTick));
+    private final List<Entry> due = new ArrayList<>();
+
+    public static class Entry {
+        private final GenericTileEntity te;
+        private final int interval;
+        private final int phase;
+        private final boolean lowPriority;
+        private long nextTick;
+        private boolean queued = false;
+        private boolean removed = false;
+
+        private Entry(GenericTileEntity te, int interval, boolean lowPriority) {
+            this.te = te;
+            this.interval = interval;
+            this.phase = (int) Math.floorMod(MathHelper.getPositionRandom(te.getPos()), (long) interval);
+            this.lowPriority = lowPriority;
+        }
+
+        // The first tick after 'now' that is in phase
+        private long nextInPhase(long now) {
+            long t = now + 1;
+            return t + Math.floorMod(phase - t, (long) interval);
+        }
+    }
+
+    static Entry register(GenericTileEntity te, int interval, boolean lowPriority) {
+        World world = te.getWorld();
+        TickScheduler scheduler = schedulers.computeIfAbsent(world, w -> new TickScheduler());
+        Entry entry = new Entry(te, Math.max(1, interval), lowPriority);
+        scheduler.schedule(entry, world.getTotalWorldTime());
+        return entry;
+    }
+
+    static void remove(Entry entry) {
+        entry.removed = true;
+    }
+
+    static void wakeUp(Entry entry) {
+        if (entry.queued || entry.removed) {
+            return;
+        }
+        TickScheduler scheduler = schedulers.get(entry.te.getWorld());
+        if (scheduler != null) {
+            scheduler.schedule(entry, entry.te.getWorld().getTotalWorldTime());
+        }
+    }
+
+    private void schedule(Entry entry, long now) {
+        entry.nextTick = entry.nextInPhase(now);
+        entry.queued = true;
+        queue.add(entry);
+    }
+
+    public static void tick(World world) {
+        TickScheduler scheduler = schedulers.get(world);
+        if (scheduler != null) {
+            scheduler.run(world.getTotalWorldTime());
+        }
+    }
+
+    private void run(long now) {
+        while (!queue.isEmpty() && queue.peek().nextTick <= now) {
+            Entry entry = queue.poll();
+            entry.queued = false;
+            if (!entry.removed && !entry.te.isInvalid()) {
+                due.add(entry);
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long budget = GeneralConfig.scheduledTickBudget * 1000L;
+        // Normal priority first. Low priority only as long as there is time left
+        for (Entry entry : due) {
+            if (!entry.lowPriority) {
+                runEntry(entry, now);
+            }
+        }
+        for (Entry entry : due) {
+            if (entry.lowPriority) {
+                if (budget > 0 && System.nanoTime() - start > budget) {
+                    entry.nextTick = now + 1;
+                    entry.queued = true;
+                    queue.add(entry);
+                } else {
+                    runEntry(entry, now);
+                }
+            }
+        }
+        due.clear();
+    }
+
+    private void runEntry(Entry entry, long now) {
+        long start = TileEntityProfiler.start();
+        boolean busy = entry.te.scheduledTick();
+        TileEntityProfiler.tick(entry.te, start);
+        if (busy && !entry.removed && !entry.queued) {
+            schedule(entry, now);
+        }
+        // Otherwise the machine sleeps until wakeScheduledTick() is called
+    }
+
+    public static void onWorldUnload(World world) {
+        schedulers.remove(world);
+    }
+}
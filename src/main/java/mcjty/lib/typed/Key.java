@@ -9,10 +9,12 @@ public final class Key<T> {
 
     @Nonnull private final String name;
     @Nonnull private final Type<T> type;
+    private final int hash;
 
     public Key(@Nonnull String name, @Nonnull Type<T> type) {
         this.name = name;
         this.type = type;
+        this.hash = 31 * name.hashCode() + type.hashCode();
     }
 
     @Nonnull
@@ -32,6 +34,7 @@ public final class Key<T> {
 
         Key<?> key = (Key<?>) o;
 
+        if (hash != key.hash) return false;
         if (!name.equals(key.name)) return false;
         if (!type.equals(key.type)) return false;
 
@@ -40,8 +43,6 @@ public final class Key<T> {
 
     @Override
     public int hashCode() {
-        int result = name.hashCode();
-        result = 31 * result + type.hashCode();
-        return result;
+        return hash;
     }
 }
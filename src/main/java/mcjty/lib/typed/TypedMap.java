@@ -1,34 +1,275 @@
 package mcjty.lib.typed;
 
+import net.minecraft.item.ItemStack;
+
 import javax.annotation.Nonnull;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
 
+/**
+ * An immutable map from typed keys to values. These maps are usually very small (1 to 4 keys)
+ * so the keys and values are kept in arrays and lookups are linear. Values of INTEGER, LONG,
+ * DOUBLE and BOOLEAN keys that are put with the primitive put methods are stored unboxed
+ * and can be read without boxing with getInt(), getLong(), getDouble() and getBool().
+ */
 public final class TypedMap {
 
     public static final TypedMap EMPTY = TypedMap.builder().build();
-    private final Map<Key<?>, Object> map;
 
-    TypedMap(Map<Key<?>, Object> map) {
-        this.map = new HashMap<>(map);
+    // Marker in the values array for values that are stored in the primitives array
+    private static final Object PRIMITIVE = new Object();
+
+    private final int size;
+    private final Key<?>[] keys;
+    private final Object[] values;
+    private final long[] primitives;
+
+    TypedMap(int size, Key<?>[] keys, Object[] values, long[] primitives) {
+        this.size = size;
+        this.keys = keys;
+        this.values = values;
+        this.primitives = primitives;
     }
 
     public Set<Key<?>> getKeys() {
-        return map.keySet();
+        return new AbstractSet<Key<?>>() {
+            @Override
+            public Iterator<Key<?>> iterator() {
+                return new Iterator<Key<?>>() {
+                    private int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < size;
+                    }
+
+                    @Override
+                    public Key<?> next() {
+                        if (i >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        return keys[i++];
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Key && indexOf((Key<?>) o) >= 0;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
     public int size() {
-        return map.size();
+        return size;
+    }
+
+    private static int indexOf(Key<?>[] keys, int size, Key<?> key) {
+        for (int i = 0 ; i < size ; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        int hash = key.hashCode();
+        for (int i = 0 ; i < size ; i++) {
+            Key<?> k = keys[i];
+            if (k.hashCode() == hash && k.equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(Key<?> key) {
+        return indexOf(keys, size, key);
     }
 
     public <V> V get(@Nonnull Key<V> key) {
-        return (V) map.get(key);
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Object value = values[i];
+        if (value == PRIMITIVE) {
+            return (V) box(key.getType(), primitives[i]);
+        }
+        return (V) value;
     }
 
     public <V> Optional<V> getOptional(@Nonnull Key<V> key) {
-        return Optional.ofNullable((V) map.get(key));
+        return Optional.ofNullable(get(key));
+    }
+
+    public boolean has(@Nonnull Key<?> key) {
+        return indexOf(key) >= 0;
+    }
+
+    // Returns the raw primitive bits or else the (boxed) value converted to a long. Missing or null values are 0
+    private long getBits(Key<?> key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return 0;
+        }
+        Object value = values[i];
+        if (value == PRIMITIVE) {
+            return primitives[i];
+        }
+        return unbox(value);
+    }
+
+    /**
+     * Get an integer value without boxing. Returns 0 if the key is missing
+     */
+    public int getInt(@Nonnull Key<Integer> key) {
+        return (int) getBits(key);
+    }
+
+    /**
+     * Get a long value without boxing. Returns 0 if the key is missing
+     */
+    public long getLong(@Nonnull Key<Long> key) {
+        return getBits(key);
+    }
+
+    /**
+     * Get a double value without boxing. Returns 0 if the key is missing
+     */
+    public double getDouble(@Nonnull Key<Double> key) {
+        return Double.longBitsToDouble(getBits(key));
+    }
+
+    /**
+     * Get a boolean value without boxing. Returns false if the key is missing
+     */
+    public boolean getBool(@Nonnull Key<Boolean> key) {
+        return getBits(key) != 0;
+    }
+
+    private static Object box(Type<?> type, long bits) {
+        Class<?> clazz = type.getType();
+        if (clazz == Integer.class) {
+            return (int) bits;
+        } else if (clazz == Long.class) {
+            return bits;
+        } else if (clazz == Double.class) {
+            return Double.longBitsToDouble(bits);
+        } else {
+            return bits != 0;
+        }
+    }
+
+    private static long unbox(Object value) {
+        if (value instanceof Integer) {
+            return (Integer) value;
+        } else if (value instanceof Long) {
+            return (Long) value;
+        } else if (value instanceof Double) {
+            return Double.doubleToRawLongBits((Double) value);
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1 : 0;
+        }
+        return 0;
+    }
+
+    private Object getValue(int i) {
+        Object value = values[i];
+        return value == PRIMITIVE ? box(keys[i].getType(), primitives[i]) : value;
+    }
+
+    /**
+     * Two maps are equal if they have the same keys with equal values. Item stacks
+     * (also in lists) are compared by item, meta, count and tag
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TypedMap)) {
+            return false;
+        }
+        TypedMap other = (TypedMap) o;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0 ; i < size ; i++) {
+            int j = other.indexOf(keys[i]);
+            if (j < 0) {
+                return false;
+            }
+            if (values[i] == PRIMITIVE && other.values[j] == PRIMITIVE) {
+                if (primitives[i] != other.primitives[j]) {
+                    return false;
+                }
+            } else if (!valueEquals(getValue(i), other.getValue(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0 ; i < size ; i++) {
+            // Order independent
+            hash += keys[i].hashCode() ^ valueHash(getValue(i));
+        }
+        return hash;
+    }
+
+    private static boolean valueEquals(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof ItemStack && b instanceof ItemStack) {
+            return ItemStack.areItemStacksEqual((ItemStack) a, (ItemStack) b);
+        }
+        if (a instanceof List && b instanceof List) {
+            List<?> la = (List<?>) a;
+            List<?> lb = (List<?>) b;
+            if (la.size() != lb.size()) {
+                return false;
+            }
+            for (int i = 0 ; i < la.size() ; i++) {
+                if (!valueEquals(la.get(i), lb.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a.equals(b);
+    }
+
+    private static int valueHash(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof ItemStack) {
+            ItemStack stack = (ItemStack) value;
+            return stack.isEmpty() ? 0 : 31 * stack.getItem().hashCode() + stack.getCount();
+        }
+        if (value instanceof List) {
+            int hash = 1;
+            for (Object o : (List<?>) value) {
+                hash = 31 * hash + valueHash(o);
+            }
+            return hash;
+        }
+        return value.hashCode();
     }
 
     public static Builder builder() {
@@ -36,18 +277,75 @@ public final class TypedMap {
     }
 
     public static class Builder {
-        private final Map<Key<?>, Object> map = new HashMap<>();
+        private int size = 0;
+        private Key<?>[] keys = new Key<?>[4];
+        private Object[] values = new Object[4];
+        private long[] primitives = null;
+        // Set after build(). The arrays are then shared with the map and have to be copied before changing them
+        private boolean shared = false;
 
         Builder() {
         }
 
+        private int slot(Key<?> key) {
+            int i = indexOf(keys, size, key);
+            if (shared) {
+                keys = keys.clone();
+                values = values.clone();
+                if (primitives != null) {
+                    primitives = primitives.clone();
+                }
+                shared = false;
+            }
+            if (i >= 0) {
+                return i;
+            }
+            if (size >= keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                if (primitives != null) {
+                    primitives = Arrays.copyOf(primitives, size * 2);
+                }
+            }
+            keys[size] = key;
+            return size++;
+        }
+
+        private Builder putBits(Key<?> key, long bits) {
+            int i = slot(key);
+            if (primitives == null) {
+                primitives = new long[keys.length];
+            }
+            values[i] = PRIMITIVE;
+            primitives[i] = bits;
+            return this;
+        }
+
         public <V> Builder put(@Nonnull Key<V> key, V value) {
-            map.put(key, value);
+            int i = slot(key);
+            values[i] = value;
             return this;
         }
 
+        public Builder putInt(@Nonnull Key<Integer> key, int value) {
+            return putBits(key, value);
+        }
+
+        public Builder putLong(@Nonnull Key<Long> key, long value) {
+            return putBits(key, value);
+        }
+
+        public Builder putDouble(@Nonnull Key<Double> key, double value) {
+            return putBits(key, Double.doubleToRawLongBits(value));
+        }
+
+        public Builder putBool(@Nonnull Key<Boolean> key, boolean value) {
+            return putBits(key, value ? 1 : 0);
+        }
+
         public TypedMap build() {
-            return new TypedMap(map);
+            shared = true;
+            return new TypedMap(size, keys, values, primitives);
         }
     }
 }
@@ -0,0 +1,229 @@
+package mcjty.lib.varia;
+
+import mcjty.lib.McJtyLib;
+import mcjty.lib.compat.TeslaCompatibility;
+import mcjty.lib.tileentity.McJtyEnergyStorage;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.energy.CapabilityEnergy;
+import net.minecraftforge.energy.IEnergyStorage;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Pushes energy from a storage to a fixed set of sinks (neighbours or remote blocks). First every
+ * sink is asked how much it would accept (simulated), then the available energy is split fairly
+ * and only after that the energy is actually sent. The sink tile entities and their energy
+ * capability (Tesla consumer or IEnergyStorage) are remembered between calls and no memory is
+ * allocated while distributing. Sinks in unloaded chunks are skipped.
+ *
+ *     distributor = new EnergyDistributor(EnergyDistributor.Mode.ROUND_ROBIN);
+ *     for (EnumFacing facing : EnumFacing.VALUES) {
+ *         distributor.addSink(pos.offset(facing), facing.getOpposite());
+ *     }
+ *     ...
+ *     distributor.distribute(world, storage, maxPerTick);
+ *
+ * Call invalidate() when a neighbour changes or its capabilities change.
+ */
+public class EnergyDistributor {
+
+    public enum Mode {
+        // Equal parts for all sinks. What is left over goes to a different sink every time
+        ROUND_ROBIN,
+        // Every sink gets a part that matches how much it can accept
+        PROPORTIONAL
+    }
+
+    // Marker for a sink tile entity that can't receive energy
+    private static final Object NO_HANDLE = new Object();
+
+    private final Mode mode;
+
+    private int count = 0;
+    private BlockPos[] positions = new BlockPos[6];
+    private EnumFacing[] sides = new EnumFacing[6];
+    private TileEntity[] sinks = new TileEntity[6];
+    // IEnergyStorage, Tesla consumer or NO_HANDLE for every sink
+    private Object[] handles = new Object[6];
+    private long[] demand = new long[6];
+    private long[] share = new long[6];
+    private int next = 0;
+
+    public EnergyDistributor(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Add a sink. The side is the side of the sink that receives the energy
+     */
+    public EnergyDistributor addSink(BlockPos pos, @Nullable EnumFacing side) {
+        if (count >= positions.length) {
+            int size = positions.length * 2;
+            positions = Arrays.copyOf(positions, size);
+            sides = Arrays.copyOf(sides, size);
+            sinks = Arrays.copyOf(sinks, size);
+            handles = Arrays.copyOf(handles, size);
+            demand = Arrays.copyOf(demand, size);
+            share = Arrays.copyOf(share, size);
+        }
+        positions[count] = pos;
+        sides[count] = side;
+        sinks[count] = null;
+        handles[count] = null;
+        count++;
+        return this;
+    }
+
+    public void clearSinks() {
+        Arrays.fill(sinks, 0, count, null);
+        Arrays.fill(handles, 0, count, null);
+        count = 0;
+        next = 0;
+    }
+
+    /**
+     * Forget the remembered tile entities and capabilities. They are looked up again on the next distribute()
+     */
+    public void invalidate() {
+        Arrays.fill(sinks, 0, count, null);
+        Arrays.fill(handles, 0, count, null);
+    }
+
+    // The energy handle of a sink or null if it can't receive energy right now. Tile entities in
+    // unloaded chunks are not invalidated so the chunk is checked every time
+    @Nullable
+    private Object getHandle(World world, int i) {
+        if (!world.isBlockLoaded(positions[i])) {
+            sinks[i] = null;
+            handles[i] = null;
+            return null;
+        }
+        TileEntity te = sinks[i];
+        if (te == null || te.isInvalid()) {
+            te = world.getTileEntity(positions[i]);
+            sinks[i] = te;
+            handles[i] = te == null ? null : resolveHandle(te, sides[i]);
+        }
+        Object handle = handles[i];
+        return handle == NO_HANDLE ? null : handle;
+    }
+
+    private static Object resolveHandle(TileEntity te, @Nullable EnumFacing side) {
+        if (McJtyLib.tesla && TeslaCompatibility.isEnergyReceiver(te, side)) {
+            Object consumer = TeslaCompatibility.getConsumer(te, side);
+            if (consumer != null) {
+                return consumer;
+            }
+        }
+        if (te.hasCapability(CapabilityEnergy.ENERGY, side)) {
+            IEnergyStorage storage = te.getCapability(CapabilityEnergy.ENERGY, side);
+            if (storage != null) {
+                return storage;
+            }
+        }
+        return NO_HANDLE;
+    }
+
+    private static long receive(Object handle, long amount, boolean simulate) {
+        if (handle instanceof IEnergyStorage) {
+            IEnergyStorage storage = (IEnergyStorage) handle;
+            return storage.canReceive() ? storage.receiveEnergy(EnergyTools.unsignedClampToInt(amount), simulate) : 0;
+        }
+        return TeslaCompatibility.givePower(handle, amount, simulate);
+    }
+
+    /**
+     * Send at most maxTotal energy from the source to the sinks. The energy is taken from the
+     * source with modifyEnergyStored() so this also works for storages that can't be extracted
+     * from by others. Returns the energy that was sent
+     */
+    public long distribute(World world, McJtyEnergyStorage source, long maxTotal) {
+        long available = Math.min(maxTotal, source.getEnergyStored());
+        if (available <= 0 || count == 0) {
+            return 0;
+        }
+
+        // Simulate
+        long totalDemand = 0;
+        int active = 0;
+        for (int i = 0 ; i < count ; i++) {
+            Object handle = getHandle(world, i);
+            long d = handle == null ? 0 : receive(handle, available, true);
+            demand[i] = Math.max(0, d);
+            share[i] = 0;
+            totalDemand += demand[i];
+            if (demand[i] > 0) {
+                active++;
+            }
+        }
+        if (active == 0) {
+            return 0;
+        }
+
+        if (totalDemand <= available) {
+            System.arraycopy(demand, 0, share, 0, count);
+        } else if (mode == Mode.PROPORTIONAL) {
+            splitProportional(available, totalDemand);
+        } else {
+            splitRoundRobin(available, active);
+        }
+
+        // Commit
+        long sent = 0;
+        for (int i = 0 ; i < count ; i++) {
+            if (share[i] > 0) {
+                sent += receive(handles[i], share[i], false);
+            }
+        }
+        source.modifyEnergyStored(-sent);
+        next = (next + 1) % count;
+        return sent;
+    }
+
+    private void splitProportional(long available, long totalDemand) {
+        long left = available;
+        for (int i = 0 ; i < count ; i++) {
+            share[i] = Math.min(demand[i], (long) ((double) demand[i] * available / totalDemand));
+            left -= share[i];
+        }
+        handOutRest(left);
+    }
+
+    private void splitRoundRobin(long available, int active) {
+        long left = available;
+        // Every pass the rest is split between the sinks that still want more
+        while (left >= active && active > 0) {
+            long part = left / active;
+            int stillActive = 0;
+            for (int i = 0 ; i < count ; i++) {
+                long want = demand[i] - share[i];
+                if (want > 0) {
+                    long give = Math.min(want, part);
+                    share[i] += give;
+                    left -= give;
+                    if (give < want) {
+                        stillActive++;
+                    }
+                }
+            }
+            active = stillActive;
+        }
+        handOutRest(left);
+    }
+
+    // Give what is left (a rounding rest) to the sinks that still want more, starting at a different sink every call
+    private void handOutRest(long left) {
+        for (int j = 0 ; j < count && left > 0 ; j++) {
+            int i = (next + j) % count;
+            long give = Math.min(demand[i] - share[i], left);
+            if (give > 0) {
+                share[i] += give;
+                left -= give;
+            }
+        }
+    }
+}
@@ -13,6 +13,8 @@ import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
 import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.common.capabilities.CapabilityInject;
 import net.minecraftforge.energy.CapabilityEnergy;
@@ -20,6 +22,10 @@ import net.minecraftforge.energy.IEnergyStorage;
 import net.minecraftforge.fml.common.Loader;
 
 import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
 
 public class EnergyTools {
 
@@ -86,61 +92,222 @@ public class EnergyTools {
         }
     }
 
+    // How to get the energy of a tile entity. Resolved once per tile entity class (see getAdapter())
+    private interface EnergyAdapter {
+        long getEnergy(TileEntity te, @Nullable EnumFacing side);
+
+        long getMaxEnergy(TileEntity te, @Nullable EnumFacing side);
+
+        // Both values at once. Adapters override this to look up the capability only once
+        default MutableEnergyLevel fill(TileEntity te, @Nullable EnumFacing side, MutableEnergyLevel result) {
+            return result.set(getEnergy(te, side), getMaxEnergy(te, side));
+        }
+    }
+
+    private static final Map<Class<?>, EnergyAdapter> adapters = new ConcurrentHashMap<>();
+
+    private static final EnergyAdapter BIG_POWER = new EnergyAdapter() {
+        @Override
+        public long getEnergy(TileEntity te, @Nullable EnumFacing side) {
+            return ((IBigPower) te).getStoredPower();
+        }
+
+        @Override
+        public long getMaxEnergy(TileEntity te, @Nullable EnumFacing side) {
+            return ((IBigPower) te).getCapacity();
+        }
+    };
+
+    // Capabilities can differ per side and change at runtime so these are always checked
+    private static final EnergyAdapter CAPABILITY = new EnergyAdapter() {
+        @Override
+        public long getEnergy(TileEntity te, @Nullable EnumFacing side) {
+            if (McJtyLib.tesla && TeslaCompatibility.isEnergyHandler(te, side)) {
+                return TeslaCompatibility.getEnergy(te, side);
+            }
+            IEnergyStorage energy = te.getCapability(CapabilityEnergy.ENERGY, side);
+            return energy == null ? 0 : energy.getEnergyStored();
+        }
+
+        @Override
+        public long getMaxEnergy(TileEntity te, @Nullable EnumFacing side) {
+            if (McJtyLib.tesla && TeslaCompatibility.isEnergyHandler(te, side)) {
+                return TeslaCompatibility.getMaxEnergy(te, side);
+            }
+            IEnergyStorage energy = te.getCapability(CapabilityEnergy.ENERGY, side);
+            return energy == null ? 0 : energy.getMaxEnergyStored();
+        }
+
+        @Override
+        public MutableEnergyLevel fill(TileEntity te, @Nullable EnumFacing side, MutableEnergyLevel result) {
+            if (McJtyLib.tesla && TeslaCompatibility.fill(te, side, result)) {
+                return result;
+            }
+            IEnergyStorage energy = te.getCapability(CapabilityEnergy.ENERGY, side);
+            return energy == null ? result.set(0, 0) : result.set(energy.getEnergyStored(), energy.getMaxEnergyStored());
+        }
+    };
+
+    // Energy API of another mod that is implemented by the class. Tesla still goes first
+    private static class ModAdapter implements EnergyAdapter {
+        private final ToLongFunction<TileEntity> energy;
+        private final ToLongFunction<TileEntity> maxEnergy;
+
+        private ModAdapter(ToLongFunction<TileEntity> energy, ToLongFunction<TileEntity> maxEnergy) {
+            this.energy = energy;
+            this.maxEnergy = maxEnergy;
+        }
+
+        @Override
+        public long getEnergy(TileEntity te, @Nullable EnumFacing side) {
+            if (McJtyLib.tesla && TeslaCompatibility.isEnergyHandler(te, side)) {
+                return TeslaCompatibility.getEnergy(te, side);
+            }
+            return energy.applyAsLong(te);
+        }
+
+        @Override
+        public long getMaxEnergy(TileEntity te, @Nullable EnumFacing side) {
+            if (McJtyLib.tesla && TeslaCompatibility.isEnergyHandler(te, side)) {
+                return TeslaCompatibility.getMaxEnergy(te, side);
+            }
+            return maxEnergy.applyAsLong(te);
+        }
+
+        @Override
+        public MutableEnergyLevel fill(TileEntity te, @Nullable EnumFacing side, MutableEnergyLevel result) {
+            if (McJtyLib.tesla && TeslaCompatibility.fill(te, side, result)) {
+                return result;
+            }
+            return result.set(energy.applyAsLong(te), maxEnergy.applyAsLong(te));
+        }
+    }
+
+    private static EnergyAdapter getAdapter(TileEntity te) {
+        EnergyAdapter adapter = adapters.get(te.getClass());
+        if (adapter == null) {
+            adapter = resolveAdapter(te);
+            adapters.put(te.getClass(), adapter);
+        }
+        return adapter;
+    }
+
+    // The classes of the other mods are only touched if that mod is present
+    private static EnergyAdapter resolveAdapter(TileEntity te) {
+        doCheckMods();
+        if (te instanceof IBigPower) {
+            return BIG_POWER;
+        } else if (draconic && EnergySupportDraconic.isDraconicEnergyTile(te)) {
+            return new ModAdapter(EnergySupportDraconic::getCurrentEnergy, EnergySupportDraconic::getMaxEnergy);
+        } else if (mekanism && EnergySupportMekanism.isMekanismTileEntity(te)) {
+            return new ModAdapter(EnergySupportMekanism::getCurrentEnergy, EnergySupportMekanism::getMaxEnergy);
+        } else if (enderio && EnergySupportEnderIO.isEnderioTileEntity(te)) {
+            return new ModAdapter(EnergySupportEnderIO::getCurrentEnergy, EnergySupportEnderIO::getMaxEnergy);
+        }
+        return CAPABILITY;
+    }
+
     // Get energy level with possible support for multiblocks (like EnderIO capacitor bank).
     public static EnergyLevel getEnergyLevelMulti(TileEntity tileEntity, @Nullable EnumFacing side) {
-        long maxEnergyStored;
-        long energyStored;
-        doCheckMods();
-        if (tileEntity instanceof IBigPower) {
-            maxEnergyStored = ((IBigPower) tileEntity).getCapacity();
-            energyStored = ((IBigPower) tileEntity).getStoredPower();
-        } else if (McJtyLib.tesla && TeslaCompatibility.isEnergyHandler(tileEntity, side)) {
-            maxEnergyStored = TeslaCompatibility.getMaxEnergy(tileEntity, side);
-            energyStored = TeslaCompatibility.getEnergy(tileEntity, side);
-        } else if (draconic && EnergySupportDraconic.isDraconicEnergyTile(tileEntity)) {
-            maxEnergyStored = EnergySupportDraconic.getMaxEnergy(tileEntity);
-            energyStored = EnergySupportDraconic.getCurrentEnergy(tileEntity);
-        } else if (mekanism && EnergySupportMekanism.isMekanismTileEntity(tileEntity)) {
-            maxEnergyStored = EnergySupportMekanism.getMaxEnergy(tileEntity);
-            energyStored = EnergySupportMekanism.getCurrentEnergy(tileEntity);
-        } else if (enderio && EnergySupportEnderIO.isEnderioTileEntity(tileEntity)) {
-            maxEnergyStored = EnergySupportEnderIO.getMaxEnergy(tileEntity);
-            energyStored = EnergySupportEnderIO.getCurrentEnergy(tileEntity);
-        } else if (tileEntity != null && tileEntity.hasCapability(CapabilityEnergy.ENERGY, side)) {
-            IEnergyStorage energy = tileEntity.getCapability(CapabilityEnergy.ENERGY, side);
-            maxEnergyStored = energy.getMaxEnergyStored();
-            energyStored = energy.getEnergyStored();
-        } else {
-            maxEnergyStored = 0;
-            energyStored = 0;
-        }
-        return new EnergyLevel(energyStored, maxEnergyStored);
+        if (tileEntity == null) {
+            return new EnergyLevel(0, 0);
+        }
+        MutableEnergyLevel level = getAdapter(tileEntity).fill(tileEntity, side, new MutableEnergyLevel());
+        return new EnergyLevel(level.getEnergy(), level.getMaxEnergy());
     }
 
     public static EnergyLevel getEnergyLevel(TileEntity tileEntity, @Nullable EnumFacing side) {
-        long maxEnergyStored;
-        long energyStored;
-        if (McJtyLib.tesla && TeslaCompatibility.isEnergyHandler(tileEntity, side)) {
-            maxEnergyStored = TeslaCompatibility.getMaxEnergy(tileEntity, side);
-            energyStored = TeslaCompatibility.getEnergy(tileEntity, side);
-        } else if (tileEntity != null && tileEntity.hasCapability(CapabilityEnergy.ENERGY, side)) {
-            IEnergyStorage energy = tileEntity.getCapability(CapabilityEnergy.ENERGY, side);
-            maxEnergyStored = energy.getMaxEnergyStored();
-            energyStored = energy.getEnergyStored();
-        } else {
-            maxEnergyStored = 0;
-            energyStored = 0;
-        }
-        return new EnergyLevel(energyStored, maxEnergyStored);
+        if (tileEntity == null) {
+            return new EnergyLevel(0, 0);
+        }
+        MutableEnergyLevel level = CAPABILITY.fill(tileEntity, side, new MutableEnergyLevel());
+        return new EnergyLevel(level.getEnergy(), level.getMaxEnergy());
+    }
+
+    /**
+     * A mutable energy level that can be reused for many queries (i.e. every frame)
+     */
+    public static class MutableEnergyLevel {
+        private long energy;
+        private long maxEnergy;
+
+        public long getEnergy() {
+            return energy;
+        }
+
+        public long getMaxEnergy() {
+            return maxEnergy;
+        }
+
+        public MutableEnergyLevel set(long energy, long maxEnergy) {
+            this.energy = energy;
+            this.maxEnergy = maxEnergy;
+            return this;
+        }
+    }
+
+    /**
+     * Same as getEnergyLevelMulti() but the result is put in the given holder
+     */
+    public static MutableEnergyLevel getEnergyLevelMulti(TileEntity tileEntity, @Nullable EnumFacing side, MutableEnergyLevel result) {
+        if (tileEntity == null) {
+            return result.set(0, 0);
+        }
+        return getAdapter(tileEntity).fill(tileEntity, side, result);
+    }
+
+    /**
+     * Same as getEnergyLevel() but the result is put in the given holder
+     */
+    public static MutableEnergyLevel getEnergyLevel(TileEntity tileEntity, @Nullable EnumFacing side, MutableEnergyLevel result) {
+        if (tileEntity == null) {
+            return result.set(0, 0);
+        }
+        return CAPABILITY.fill(tileEntity, side, result);
+    }
+
+    // Only the stored energy (with multiblock support like getEnergyLevelMulti())
+    public static long getEnergyMulti(TileEntity tileEntity, @Nullable EnumFacing side) {
+        return tileEntity == null ? 0 : getAdapter(tileEntity).getEnergy(tileEntity, side);
+    }
+
+    // Only the capacity (with multiblock support like getEnergyLevelMulti())
+    public static long getMaxEnergyMulti(TileEntity tileEntity, @Nullable EnumFacing side) {
+        return tileEntity == null ? 0 : getAdapter(tileEntity).getMaxEnergy(tileEntity, side);
+    }
+
+    /**
+     * Get the energy levels (like getEnergyLevelMulti()) of many blocks at once. The results are put
+     * in the energy and maxEnergy arrays at the same index as the position. Unloaded positions and
+     * blocks without energy give 0
+     */
+    public static void getEnergyLevelsMulti(World world, List<BlockPos> positions, @Nullable EnumFacing side, long[] energy, long[] maxEnergy) {
+        MutableEnergyLevel level = new MutableEnergyLevel();
+        for (int i = 0 ; i < positions.size() ; i++) {
+            BlockPos pos = positions.get(i);
+            TileEntity te = world.isBlockLoaded(pos) ? world.getTileEntity(pos) : null;
+            if (te == null) {
+                energy[i] = 0;
+                maxEnergy[i] = 0;
+            } else {
+                getAdapter(te).fill(te, side, level);
+                energy[i] = level.getEnergy();
+                maxEnergy[i] = level.getMaxEnergy();
+            }
+        }
     }
 
     public static long receiveEnergy(TileEntity tileEntity, EnumFacing from, long maxReceive) {
+        return receiveEnergy(tileEntity, from, maxReceive, false);
+    }
+
+    public static long receiveEnergy(TileEntity tileEntity, EnumFacing from, long maxReceive, boolean simulate) {
         if (McJtyLib.tesla && TeslaCompatibility.isEnergyReceiver(tileEntity, from)) {
-            return TeslaCompatibility.receiveEnergy(tileEntity, from, maxReceive);
+            return TeslaCompatibility.receiveEnergy(tileEntity, from, maxReceive, simulate);
         } else if (tileEntity != null && tileEntity.hasCapability(CapabilityEnergy.ENERGY, from)) {
             IEnergyStorage capability = tileEntity.getCapability(CapabilityEnergy.ENERGY, from);
             if (capability.canReceive()) {
-                return capability.receiveEnergy(unsignedClampToInt(maxReceive), false);
+                return capability.receiveEnergy(unsignedClampToInt(maxReceive), simulate);
             }
         }
         return 0;
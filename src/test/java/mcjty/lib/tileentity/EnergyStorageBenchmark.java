@@ -0,0 +1,48 @@
+package mcjty.lib.tileentity;
+
+import java.util.function.Supplier;
+
+/**
+ * Timed harness for the uncontended cost of AtomicEnergyStorage compared to the plain
+ * McJtyEnergyStorage, with and without telemetry. Run the main() from the IDE (test classpath).
+ */
+public class EnergyStorageBenchmark {
+
+    private static final int WARMUP = 5_000_000;
+    private static final int ITERATIONS = 20_000_000;
+
+    // Sink for the results so that the JIT can't remove the work
+    private static long blackhole = 0;
+
+    public static void main(String[] args) {
+        run("plain", () -> new McJtyEnergyStorage(1_000_000, 1000, 1000, 500_000), false);
+        run("atomic", () -> new AtomicEnergyStorage(1_000_000, 1000, 1000, 500_000), false);
+        run("plain+telemetry", () -> new McJtyEnergyStorage(1_000_000, 1000, 1000, 500_000), true);
+        run("atomic+telemetry", () -> new AtomicEnergyStorage(1_000_000, 1000, 1000, 500_000), true);
+        System.out.println("(" + blackhole + ")");
+    }
+
+    private static void run(String name, Supplier<McJtyEnergyStorage> factory, boolean telemetry) {
+        McJtyEnergyStorage storage = factory.get();
+        if (telemetry) {
+            storage.enableTelemetry();
+        }
+        loop(storage, WARMUP);
+        long start = System.nanoTime();
+        loop(storage, ITERATIONS);
+        long time = System.nanoTime() - start;
+        // Every iteration does a receive, an extract, a modify and a read
+        System.out.println(String.format("%-18s %6.2f ns/op", name, time / (ITERATIONS * 4.0)));
+    }
+
+    private static void loop(McJtyEnergyStorage storage, int iterations) {
+        long sum = 0;
+        for (int i = 0 ; i < iterations ; i++) {
+            sum += storage.receiveEnergy(100, false);
+            sum += storage.extractEnergy(100, false);
+            storage.modifyEnergyStored((i & 1) == 0 ? 10 : -10);
+            sum += storage.getEnergyStored();
+        }
+        blackhole += sum;
+    }
+}
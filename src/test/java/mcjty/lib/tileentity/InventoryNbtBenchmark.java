@@ -0,0 +1,92 @@
+package mcjty.lib.tileentity;
+
+import mcjty.lib.container.InventoryHelper;
+import mcjty.lib.varia.ItemStackList;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.init.Items;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+/**
+ * Timed harness for writing and reading big inventories to/from NBT. Compares the sparse
+ * format of writeBufferToNBT() (only occupied slots) with the old format (every slot).
+ * Run the main() from the IDE (test classpath). Arguments: slots and fill percentage
+ */
+public class InventoryNbtBenchmark {
+
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 5000;
+
+    // Sink for the results so that the JIT can't remove the work
+    private static int blackhole = 0;
+
+    public static void main(String[] args) {
+        Bootstrap.register();
+        int slots = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int fill = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ItemStackList list = ItemStackList.create(slots);
+        for (int i = 0 ; i < slots ; i++) {
+            // Spread the filled slots over the whole inventory
+            if (Math.floorMod(i * 7919, 100) < fill) {
+                list.set(i, new ItemStack(Items.DIAMOND, 1 + i % 64));
+            }
+        }
+        GenericTileEntity te = new GenericTileEntity();
+
+        System.out.println("Slots: " + slots + ", filled: " + fill + "%");
+        run("write sparse", () -> {
+            NBTTagCompound tag = new NBTTagCompound();
+            te.writeBufferToNBT(tag, "Items", list);
+            blackhole += tag.getTagList("Items", 10).tagCount();
+        });
+        run("write legacy", () -> {
+            NBTTagCompound tag = new NBTTagCompound();
+            writeLegacy(tag, list);
+            blackhole += tag.getTagList("Items", 10).tagCount();
+        });
+
+        NBTTagCompound sparse = new NBTTagCompound();
+        te.writeBufferToNBT(sparse, "Items", list);
+        NBTTagList sparseList = sparse.getTagList("Items", 10);
+        NBTTagCompound legacy = new NBTTagCompound();
+        writeLegacy(legacy, list);
+        NBTTagList legacyList = legacy.getTagList("Items", 10);
+        ItemStackList target = ItemStackList.create(slots);
+        run("read sparse", () -> {
+            InventoryHelper.readStacks(sparseList, target);
+            blackhole += target.get(0).getCount();
+        });
+        run("read legacy", () -> {
+            InventoryHelper.readStacks(legacyList, target);
+            blackhole += target.get(0).getCount();
+        });
+        System.out.println("(" + blackhole + ")");
+    }
+
+    // The format from before sparse saving: one compound for every slot
+    private static void writeLegacy(NBTTagCompound tagCompound, ItemStackList list) {
+        NBTTagList bufferTagList = new NBTTagList();
+        for (ItemStack stack : list) {
+            NBTTagCompound nbtTagCompound = new NBTTagCompound();
+            if (!stack.isEmpty()) {
+                stack.writeToNBT(nbtTagCompound);
+            }
+            bufferTagList.appendTag(nbtTagCompound);
+        }
+        tagCompound.setTag("Items", bufferTagList);
+    }
+
+    private static void run(String name, Runnable task) {
+        for (int i = 0 ; i < WARMUP ; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0 ; i < ITERATIONS ; i++) {
+            task.run();
+        }
+        long time = System.nanoTime() - start;
+        System.out.println(String.format("%-14s %10.1f us/op", name, time / 1000.0 / ITERATIONS));
+    }
+}